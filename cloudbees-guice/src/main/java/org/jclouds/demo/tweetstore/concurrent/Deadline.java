@@ -0,0 +1,80 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Point in time by which all the work done for a request should be finished.
+ */
+public class Deadline {
+   private static final Deadline NONE = new Deadline(false, 0);
+
+   private final boolean bounded;
+   private final long nanos;
+
+   private Deadline(boolean bounded, long nanos) {
+      this.bounded = bounded;
+      this.nanos = nanos;
+   }
+
+   /**
+    * @return a deadline that never expires
+    */
+   public static Deadline none() {
+      return NONE;
+   }
+
+   /**
+    * @param timeout
+    *           0 for a deadline that never expires
+    */
+   public static Deadline after(long timeout, TimeUnit unit) {
+      checkArgument(timeout >= 0, "timeout must not be negative but was %s", timeout);
+      return (timeout == 0) ? NONE : new Deadline(true, System.nanoTime() + unit.toNanos(timeout));
+   }
+
+   public boolean isExpired() {
+      return bounded && nanos - System.nanoTime() <= 0;
+   }
+
+   /**
+    * Waits for the result of the task until the deadline. If the deadline never expires, the task
+    * is run in this thread unless a worker has already picked it up, so that the caller does not
+    * wait on a saturated executor.
+    *
+    * @throws TimeoutException
+    *            if the deadline expires first
+    */
+   public <T> T await(ListenableFutureTask<T> task) throws ExecutionException, TimeoutException {
+      if (!bounded) {
+         // no-op if a worker has already picked up the task
+         task.run();
+         return Uninterruptibles.getUninterruptibly(task);
+      }
+      return Uninterruptibles.getUninterruptibly(task, nanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+   }
+}
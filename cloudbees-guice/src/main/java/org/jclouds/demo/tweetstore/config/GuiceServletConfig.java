@@ -27,6 +27,14 @@ import static org.jclouds.Constants.PROPERTY_STRIP_EXPECT_HEADER;
 import static org.jclouds.demo.paas.reference.PaasConstants.PROPERTY_PLATFORM_BASE_URL;
 import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_BLOBSTORES;
 import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_DICTIONARY;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_PUTS_PER_PROVIDER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_REQUEST_TIMEOUT;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_SEGMENTS;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_THREADS;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_ACCESSTOKEN;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_ACCESSTOKEN_SECRET;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_CONSUMER_KEY;
@@ -35,6 +43,7 @@ import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TW
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Executors;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
@@ -49,6 +58,8 @@ import org.jclouds.demo.tweetstore.controller.AddTweetsController;
 import org.jclouds.demo.tweetstore.controller.ClearTweetsController;
 import org.jclouds.demo.tweetstore.controller.EnqueueStoresController;
 import org.jclouds.demo.tweetstore.controller.StoreTweetsController;
+import org.jclouds.demo.tweetstore.controller.TweetsJsonController;
+import org.jclouds.demo.tweetstore.filter.GzipFilter;
 
 import twitter4j.Twitter;
 import twitter4j.TwitterFactory;
@@ -58,6 +69,9 @@ import twitter4j.conf.ConfigurationBuilder;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Module;
@@ -77,6 +91,14 @@ public class GuiceServletConfig extends GuiceServletContextListener {
     private String container;
     private TaskQueue queue;
     private String baseUrl;
+    private ListeningExecutorService userExecutor;
+    private int fetchesPerProvider;
+    private int putsPerProvider;
+    private boolean segments;
+    private String dictionary;
+    private long tweetCacheBytes;
+    private long snapshotMaxAge;
+    private long requestTimeout;
 
     @Override
     public void contextInitialized(ServletContextEvent servletContextEvent) {
@@ -108,6 +130,18 @@ public class GuiceServletConfig extends GuiceServletContextListener {
                     .modules(modules).overrides(props).build(BlobStoreContext.class));
         }
 
+        // shared by all requests to query the blobstores in parallel
+        userExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+                Integer.parseInt(props.getProperty(PROPERTY_TWEETSTORE_THREADS, "20")),
+                new ThreadFactoryBuilder().setNameFormat("tweetstore-%d").setDaemon(true).build()));
+        fetchesPerProvider = Integer.parseInt(props.getProperty(PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER, "10"));
+        putsPerProvider = Integer.parseInt(props.getProperty(PROPERTY_TWEETSTORE_PUTS_PER_PROVIDER, "10"));
+        segments = Boolean.parseBoolean(props.getProperty(PROPERTY_TWEETSTORE_SEGMENTS, "false"));
+        dictionary = props.getProperty(PROPERTY_TWEETSTORE_DICTIONARY, "");
+        tweetCacheBytes = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES, "8388608"));
+        snapshotMaxAge = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE, "30000"));
+        requestTimeout = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_REQUEST_TIMEOUT, "10000"));
+
         // get a queue for submitting store tweet requests and the application's base URL
         PlatformServices platform = PlatformServices.get(servletContext);
         queue = platform.getTaskQueue("twitter");
@@ -135,12 +169,29 @@ public class GuiceServletConfig extends GuiceServletContextListener {
                 .toInstance(providerTypeToBlobStoreMap);
                 bind(Twitter.class).toInstance(twitterClient);
                 bind(TaskQueue.class).toInstance(queue);
+                bind(ListeningExecutorService.class).toInstance(userExecutor);
                 bindConstant().annotatedWith(Names.named(PROPERTY_PLATFORM_BASE_URL))
                 .to(baseUrl);
                 bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_CONTAINER))
                 .to(container);
+                bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER))
+                .to(fetchesPerProvider);
+                bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_PUTS_PER_PROVIDER))
+                .to(putsPerProvider);
+                bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_SEGMENTS))
+                .to(segments);
+                bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_DICTIONARY))
+                .to(dictionary);
+                bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES))
+                .to(tweetCacheBytes);
+                bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE))
+                .to(snapshotMaxAge);
+                bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_REQUEST_TIMEOUT))
+                .to(requestTimeout);
+                filter("/tweets/*", "/tweets.json").through(GzipFilter.class);
                 serve("/store/*").with(StoreTweetsController.class);
                 serve("/tweets/*").with(AddTweetsController.class);
+                serve("/tweets.json").with(TweetsJsonController.class);
                 serve("/stores/*").with(EnqueueStoresController.class);
                 serve("/clear/*").with(ClearTweetsController.class);
             }
@@ -153,6 +204,7 @@ public class GuiceServletConfig extends GuiceServletContextListener {
             context.close();
         }
         queue.destroy();
+        userExecutor.shutdownNow();
         super.contextDestroyed(servletContextEvent);
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.filter;
+
+import java.io.IOException;
+
+import javax.inject.Singleton;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.net.HttpHeaders;
+
+/**
+ * Compresses responses for clients that accept gzip. Servlets that set their own Content-Encoding,
+ * for instance to send content they have compressed before, are passed through.
+ * 
+ * @author Adrian Cole
+ */
+@Singleton
+public class GzipFilter implements Filter {
+   private static final String COMPRESSING = GzipFilter.class.getName() + ".compressing";
+
+   /**
+    * @return true if the response to the request is being compressed by this filter, so that the
+    *         servlet may send content compressed with gzip instead
+    */
+   public static boolean isCompressing(HttpServletRequest request) {
+      return request.getAttribute(COMPRESSING) != null;
+   }
+
+   @Override
+   public void init(FilterConfig filterConfig) throws ServletException {
+   }
+
+   @Override
+   public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+      if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+         chain.doFilter(request, response);
+         return;
+      }
+      HttpServletResponse httpResponse = (HttpServletResponse) response;
+      // caches must not send compressed responses to clients that do not accept them
+      if (!httpResponse.containsHeader(HttpHeaders.VARY)) {
+         httpResponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+      }
+      if (!acceptsGzip(((HttpServletRequest) request).getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+         chain.doFilter(request, response);
+         return;
+      }
+      GzipResponseWrapper gzipResponse = new GzipResponseWrapper(httpResponse);
+      request.setAttribute(COMPRESSING, Boolean.TRUE);
+      try {
+         chain.doFilter(request, gzipResponse);
+      } finally {
+         request.removeAttribute(COMPRESSING);
+      }
+      gzipResponse.finish();
+   }
+
+   @Override
+   public void destroy() {
+   }
+
+   @VisibleForTesting
+   static boolean acceptsGzip(String acceptEncoding) {
+      if (acceptEncoding == null) {
+         return false;
+      }
+      for (String coding : Splitter.on(',').trimResults().omitEmptyStrings().split(acceptEncoding)) {
+         Iterable<String> parameters = Splitter.on(';').trimResults().split(coding);
+         String name = parameters.iterator().next();
+         if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip") || name.equals("*")) {
+            for (String parameter : parameters) {
+               if (parameter.replace(" ", "").matches("q=0(\\.0*)?")) {
+                  return false;
+               }
+            }
+            return true;
+         }
+      }
+      return false;
+   }
+}
@@ -0,0 +1,176 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.functions;
+
+import static com.google.common.base.Preconditions.checkState;
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.withDetails;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.demo.tweetstore.concurrent.Deadline;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+/**
+ * Lists a container one page at a time. The next page is requested as soon as the previous one
+ * is read, so that it is listed while the blobs of the previous page are being retrieved, but no
+ * more than one page is requested ahead of the pages being read. Each page is dropped as soon as
+ * it is read, so that a large container is never held in memory as a whole; the listing can
+ * therefore only be iterated once.
+ * <p/>
+ * The listing ends early if a page fails or is not listed by the deadline; see
+ * {@link #getFailure()}. Only the tweets are listed, not the other blobs kept in the container.
+ */
+class ContainerListing implements Iterable<StorageMetadata> {
+   private static final Set<String> NOT_TWEETS = ImmutableSet.of(TweetStoreConstants.CHECKPOINT_NAME,
+            TweetStoreConstants.TWEET_IDS_NAME);
+   /**
+    * Matches the blobs that each hold a single tweet; segments of many tweets are read from their
+    * own listing instead.
+    */
+   static final Predicate<StorageMetadata> IS_TWEET = new Predicate<StorageMetadata>() {
+      @Override
+      public boolean apply(StorageMetadata input) {
+         return !NOT_TWEETS.contains(input.getName())
+                  && !input.getName().startsWith(TweetStoreConstants.SEGMENT_PREFIX);
+      }
+   };
+
+   private final BlobStore store;
+   private final String container;
+   private final Executor executor;
+   private final Deadline deadline;
+   private final int maxResults;
+   // guarded by this
+   private final List<ListenableFutureTask<PageSet<? extends StorageMetadata>>> pages = Lists.newArrayList();
+   private Throwable failure;
+
+   /**
+    * Requests the first page right away.
+    */
+   ContainerListing(BlobStore store, String container, Executor executor, Deadline deadline) {
+      this(store, container, executor, deadline, 0);
+   }
+
+   /**
+    * @param maxResults
+    *           0 for the blobstore's default page size
+    */
+   @VisibleForTesting
+   ContainerListing(BlobStore store, String container, Executor executor, Deadline deadline, int maxResults) {
+      this.store = store;
+      this.container = container;
+      this.executor = executor;
+      this.deadline = deadline;
+      this.maxResults = maxResults;
+      pages.add(request(null));
+   }
+
+   @Override
+   public Iterator<StorageMetadata> iterator() {
+      return new AbstractIterator<StorageMetadata>() {
+         private int index;
+         private Iterator<? extends StorageMetadata> page = Collections.emptyIterator();
+
+         @Override
+         protected StorageMetadata computeNext() {
+            while (!page.hasNext()) {
+               PageSet<? extends StorageMetadata> next = page(index++);
+               if (next == null) {
+                  return endOfData();
+               }
+               page = Iterators.filter(next.iterator(), IS_TWEET);
+            }
+            return page.next();
+         }
+      };
+   }
+
+   /**
+    * @return null if the listing has been read to the end, a {@link TimeoutException} if a page
+    *         was not listed by the deadline, or else the reason a page could not be listed
+    */
+   synchronized Throwable getFailure() {
+      return failure;
+   }
+
+   /**
+    * @return the page, or null past the last page listed
+    */
+   private synchronized PageSet<? extends StorageMetadata> page(int index) {
+      if (index >= pages.size()) {
+         return null;
+      }
+      ListenableFutureTask<PageSet<? extends StorageMetadata>> task = pages.get(index);
+      checkState(task != null, "page %s of the listing has already been read", index);
+      try {
+         PageSet<? extends StorageMetadata> page = deadline.await(task);
+         if (index == pages.size() - 1 && page.getNextMarker() != null) {
+            pages.add(request(page.getNextMarker()));
+         }
+         pages.set(index, null);
+         return page;
+      } catch (TimeoutException e) {
+         task.cancel(false);
+         failure = e;
+      } catch (ExecutionException e) {
+         failure = e.getCause();
+      }
+      // iterators that have not got this far yet end here as well
+      pages.subList(index, pages.size()).clear();
+      return null;
+   }
+
+   private ListenableFutureTask<PageSet<? extends StorageMetadata>> request(String marker) {
+      final ListContainerOptions options = withDetails();
+      if (maxResults > 0) {
+         options.maxResults(maxResults);
+      }
+      if (marker != null) {
+         options.afterMarker(marker);
+      }
+      ListenableFutureTask<PageSet<? extends StorageMetadata>> task = ListenableFutureTask.create(
+               new Callable<PageSet<? extends StorageMetadata>>() {
+                  @Override
+                  public PageSet<? extends StorageMetadata> call() {
+                     return store.list(container, options);
+                  }
+               });
+      executor.execute(task);
+      return task;
+   }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests behavior of {@code Latencies}
+ * 
+ * @author Adrian Cole
+ */
+@Test(groups = "unit")
+public class LatenciesTest {
+
+   public void testPercentiles() {
+      Latencies latencies = new Latencies();
+      assertEquals(latencies.percentile("1", 0.95), -1);
+      for (int i = 100; i > 0; i--) {
+         latencies.record("1", i);
+      }
+      assertEquals(latencies.percentile("1", 0.5), 50);
+      assertEquals(latencies.percentile("1", 0.95), 95);
+      assertEquals(latencies.percentile("1", 1), 100);
+   }
+
+   public void testKeepsRecentRequestsOnly() {
+      Latencies latencies = new Latencies();
+      for (int i = 0; i < 100; i++) {
+         latencies.record("1", 1000);
+      }
+      for (int i = 0; i < 100; i++) {
+         latencies.record("1", 1);
+      }
+      assertEquals(latencies.percentile("1", 1), 1);
+   }
+
+   public void testFastestFirst() {
+      Latencies latencies = new Latencies();
+      latencies.record("1", 30);
+      latencies.record("2", 10);
+      latencies.record("3", 20);
+      assertEquals(latencies.fastestFirst(ImmutableList.of("1", "2", "3", "4")), ImmutableList.of("4", "2", "3",
+               "1"));
+   }
+
+   public void testAverageFollowsRecentRequests() {
+      Latencies latencies = new Latencies();
+      assertEquals(latencies.average("1"), -1);
+      latencies.record("1", 1000);
+      assertEquals(latencies.average("1"), 1000);
+      for (int i = 0; i < 30; i++) {
+         latencies.record("1", 10);
+      }
+      assertTrue(latencies.average("1") < 20, String.valueOf(latencies.average("1")));
+   }
+
+   public void testRanksRequestedServicesFastestFirst() {
+      Latencies latencies = new Latencies();
+      latencies.record("1", 30);
+      latencies.record("2", 10);
+      assertEquals(ImmutableList.copyOf(latencies.ranking().entrySet()), ImmutableList.of(
+               Maps.immutableEntry("2", 10L), Maps.immutableEntry("1", 30L)));
+   }
+}
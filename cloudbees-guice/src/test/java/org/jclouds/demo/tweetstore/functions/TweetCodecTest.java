@@ -0,0 +1,149 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.functions;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.TransientApiMetadata;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+/**
+ * Tests behavior of {@code TweetCodec}
+ */
+@Test(groups = "unit")
+public class TweetCodecTest {
+   private static final String TWEET = "@jclouds thanks for the great talk today, the slides are at https://t.co/xYz9 :)";
+
+   BlobStore createStore() {
+      return ContextBuilder.newBuilder(TransientApiMetadata.builder().build()).build(BlobStoreContext.class)
+               .getBlobStore();
+   }
+
+   public void testCompressesWithDictionary() throws IOException {
+      BlobStore store = createStore();
+      Blob blob = store.blobBuilder("1").build();
+      TweetCodec.forDictionary(TweetCodec.TWEETS_DICTIONARY).setPayload(blob, TWEET, MediaType.TEXT_PLAIN);
+
+      assertEquals(blob.getMetadata().getUserMetadata().get(TweetStoreConstants.DICTIONARY_ID),
+               TweetCodec.TWEETS_DICTIONARY);
+      assertEquals(blob.getPayload().getContentMetadata().getContentType(), MediaType.APPLICATION_OCTET_STREAM);
+      assertTrue(blob.getPayload().getContentMetadata().getContentLength() < TWEET.length());
+      assertEquals(TweetCodec.getText(blob), TWEET);
+   }
+
+   public void testStoresAsIsUnlessSmaller() throws IOException {
+      BlobStore store = createStore();
+      Blob blob = store.blobBuilder("1").build();
+      TweetCodec.forDictionary(TweetCodec.TWEETS_DICTIONARY).setPayload(blob, "zq", MediaType.TEXT_PLAIN);
+
+      assertNull(blob.getMetadata().getUserMetadata().get(TweetStoreConstants.DICTIONARY_ID));
+      assertEquals(blob.getPayload().getContentMetadata().getContentType(), MediaType.TEXT_PLAIN);
+      assertEquals(TweetCodec.getText(blob), "zq");
+   }
+
+   public void testNoDictionaryStoresAsIs() throws IOException {
+      BlobStore store = createStore();
+      Blob blob = store.blobBuilder("1").build();
+      TweetCodec.forDictionary("").setPayload(blob, TWEET, MediaType.TEXT_PLAIN);
+
+      assertNull(blob.getMetadata().getUserMetadata().get(TweetStoreConstants.DICTIONARY_ID));
+      assertEquals(TweetCodec.getText(blob), TWEET);
+   }
+
+   @Test(expectedExceptions = IOException.class)
+   public void testUnknownDictionaryIsNotRead() throws IOException {
+      BlobStore store = createStore();
+      Blob blob = store.blobBuilder("1").build();
+      TweetCodec.forDictionary(TweetCodec.TWEETS_DICTIONARY).setPayload(blob, TWEET, MediaType.TEXT_PLAIN);
+      blob.getMetadata().getUserMetadata().put(TweetStoreConstants.DICTIONARY_ID, "unknown");
+      TweetCodec.getText(blob);
+   }
+
+   public void testTweetsDictionaryIsBuiltFromCorpus() throws IOException {
+      String words = Joiner.on(' ').join(TweetDictionaryBuilder.build(readCorpus()));
+
+      assertEquals(new String(TweetCodec.getDictionary(TweetCodec.TWEETS_DICTIONARY), Charsets.UTF_8),
+               " " + words + " ");
+   }
+
+   public void testTweetsDictionaryCompressesCorpusBetterThanDeflate() throws IOException {
+      List<String> corpus = readCorpus();
+      // the tweets the dictionary was built from, so this is the most it can save
+      long withDictionary = storedBytes(corpus, TweetCodec.getDictionary(TweetCodec.TWEETS_DICTIONARY));
+      long withoutDictionary = storedBytes(corpus, new byte[0]);
+
+      assertTrue(withDictionary < withoutDictionary * 2 / 3, withDictionary + " bytes with the dictionary, "
+               + withoutDictionary + " without");
+   }
+
+   public void testDictionaryCompressesTweetsItWasNotBuiltFrom() throws IOException {
+      List<String> corpus = readCorpus();
+      List<String> built = Lists.newArrayList();
+      List<String> unseen = Lists.newArrayList();
+      for (int i = 0; i < corpus.size(); i++) {
+         (i % 2 == 0 ? built : unseen).add(corpus.get(i));
+      }
+      byte[] dictionary = (" " + Joiner.on(' ').join(TweetDictionaryBuilder.build(built)) + " ")
+               .getBytes(Charsets.UTF_8);
+      long withDictionary = storedBytes(unseen, dictionary);
+      long withoutDictionary = storedBytes(unseen, new byte[0]);
+
+      assertTrue(withDictionary < withoutDictionary * 3 / 4, withDictionary + " bytes with the dictionary, "
+               + withoutDictionary + " without");
+   }
+
+   private static List<String> readCorpus() throws IOException {
+      return Resources.readLines(Resources.getResource(TweetDictionaryBuilder.TWEETS_CORPUS), Charsets.UTF_8);
+   }
+
+   /**
+    * @return the bytes taken by the tweets stored one per blob, each compressed with the given
+    *         dictionary unless that does not make it smaller
+    */
+   private static long storedBytes(List<String> tweets, byte[] dictionary) {
+      long stored = 0;
+      for (String tweet : tweets) {
+         byte[] plain = tweet.getBytes(Charsets.UTF_8);
+         stored += Math.min(plain.length, TweetCodec.deflate(plain, dictionary).length);
+      }
+      return stored;
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testUnknownDictionaryIsRejected() {
+      TweetCodec.forDictionary("unknown");
+   }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import static com.google.common.base.Predicates.instanceOf;
+
+import java.util.Collections;
+import java.util.Set;
+
+import javax.inject.Singleton;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.ContainerNotFoundException;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+/**
+ * Remembers the blobstores in which this application instance has created the tweet container,
+ * so that it is only created the first time tweets are stored in a blobstore, rather than every
+ * time, which costs a round trip.
+ */
+@Singleton
+public class CreatedContainers {
+   private final Set<String> created = Collections.newSetFromMap(Maps.<String, Boolean> newConcurrentMap());
+
+   /**
+    * Creates the container in the given blobstore, unless it has been created already.
+    */
+   public void create(String contextName, BlobStore store, String container) {
+      if (!created.contains(contextName)) {
+         store.createContainerInLocation(null, container);
+         created.add(contextName);
+      }
+   }
+
+   /**
+    * Creates the container in the given blobstore again the next time, e.g. after it has been
+    * cleared.
+    */
+   public void invalidate(String contextName) {
+      created.remove(contextName);
+   }
+
+   /**
+    * Creates the container in the given blobstore again the next time if the error shows that the
+    * container is missing.
+    */
+   public void failed(String contextName, Throwable error) {
+      if (Iterables.any(Throwables.getCausalChain(error), instanceOf(ContainerNotFoundException.class))) {
+         invalidate(contextName);
+      }
+   }
+}
@@ -26,6 +26,14 @@ import static com.google.common.collect.Sets.filter;
 import static org.jclouds.Constants.PROPERTY_STRIP_EXPECT_HEADER;
 import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_BLOBSTORES;
 import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_DICTIONARY;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_PUTS_PER_PROVIDER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_REQUEST_TIMEOUT;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_SEGMENTS;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_THREADS;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_ACCESSTOKEN;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_ACCESSTOKEN_SECRET;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_CONSUMER_KEY;
@@ -35,6 +43,7 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Executors;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -46,12 +55,19 @@ import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.demo.paas.PlatformServices;
 import org.jclouds.demo.paas.service.taskqueue.TaskQueue;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints;
+import org.jclouds.demo.tweetstore.cache.ContainerVersions;
+import org.jclouds.demo.tweetstore.cache.CreatedContainers;
+import org.jclouds.demo.tweetstore.cache.StoredTweetIds;
+import org.jclouds.demo.tweetstore.cache.TweetCache;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
 import org.jclouds.demo.tweetstore.config.util.CredentialsCollector;
 import org.jclouds.demo.tweetstore.config.util.PropertiesLoader;
 import org.jclouds.demo.tweetstore.controller.AddTweetsController;
 import org.jclouds.demo.tweetstore.controller.ClearTweetsController;
 import org.jclouds.demo.tweetstore.controller.EnqueueStoresController;
 import org.jclouds.demo.tweetstore.controller.StoreTweetsController;
+import org.jclouds.demo.tweetstore.controller.TweetsJsonController;
 import org.jclouds.demo.tweetstore.functions.ServiceToStoredTweetStatuses;
 import org.jclouds.logging.Logger;
 import org.springframework.beans.factory.BeanCreationException;
@@ -70,6 +86,9 @@ import twitter4j.conf.ConfigurationBuilder;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Module;
 
 /**
@@ -91,6 +110,14 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
    private String container;
    private TaskQueue queue;
    private String baseUrl;
+   private ListeningExecutorService userExecutor;
+   private TweetCache tweetCache;
+   private long snapshotMaxAge;
+   private long requestTimeout;
+   private int fetchesPerProvider;
+   private int putsPerProvider;
+   private boolean segments;
+   private String dictionary;
 
    @PostConstruct
    public void initialize() throws IOException {
@@ -122,6 +149,18 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
                   .modules(modules).overrides(props).build(BlobStoreContext.class));
       }
 
+      // shared by all requests to query the blobstores in parallel
+      userExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+              Integer.parseInt(props.getProperty(PROPERTY_TWEETSTORE_THREADS, "20")),
+              new ThreadFactoryBuilder().setNameFormat("tweetstore-%d").setDaemon(true).build()));
+      fetchesPerProvider = Integer.parseInt(props.getProperty(PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER, "10"));
+      putsPerProvider = Integer.parseInt(props.getProperty(PROPERTY_TWEETSTORE_PUTS_PER_PROVIDER, "10"));
+      segments = Boolean.parseBoolean(props.getProperty(PROPERTY_TWEETSTORE_SEGMENTS, "false"));
+      dictionary = props.getProperty(PROPERTY_TWEETSTORE_DICTIONARY, "");
+      tweetCache = new TweetCache(Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES, "8388608")));
+      snapshotMaxAge = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE, "30000"));
+      requestTimeout = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_REQUEST_TIMEOUT, "10000"));
+
       // get a queue for submitting store tweet requests and the application's base URL
       PlatformServices platform = PlatformServices.get(servletConfig.getServletContext());
       queue = platform.getTaskQueue("twitter");
@@ -143,7 +182,9 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
    
    @Bean
    public StoreTweetsController storeTweetsController() {
-      StoreTweetsController controller = new StoreTweetsController(providerTypeToBlobStoreMap, container, twitterClient);
+      StoreTweetsController controller = new StoreTweetsController(providerTypeToBlobStoreMap, container, twitterClient,
+            containerVersions(), storedTweetIds(), createdContainers(), userExecutor, putsPerProvider,
+            segments, dictionary);
       injectServletConfig(controller);
       return controller;
    }
@@ -151,7 +192,16 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
    @Bean
    public AddTweetsController addTweetsController() {
       AddTweetsController controller = new AddTweetsController(providerTypeToBlobStoreMap,
-            serviceToStoredTweetStatuses());
+            serviceToStoredTweetStatuses(), userExecutor, containerVersions(), containerCheckpoints(),
+            snapshotMaxAge, requestTimeout, latencies());
+      injectServletConfig(controller);
+      return controller;
+   }
+
+   @Bean
+   public TweetsJsonController tweetsJsonController() {
+      TweetsJsonController controller = new TweetsJsonController(providerTypeToBlobStoreMap,
+            serviceToStoredTweetStatuses(), userExecutor, requestTimeout);
       injectServletConfig(controller);
       return controller;
    }
@@ -163,7 +213,8 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
 
    @Bean
    public ClearTweetsController clearTweetsController() {
-      return new ClearTweetsController(providerTypeToBlobStoreMap, container);
+      return new ClearTweetsController(providerTypeToBlobStoreMap, container, containerVersions(),
+            storedTweetIds(), createdContainers());
    }
 
    private void injectServletConfig(Servlet servlet) {
@@ -176,9 +227,35 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
       LOGGER.trace("Successfully injected servlet config.");
    }
 
+   @Bean
+   ContainerVersions containerVersions() {
+      return new ContainerVersions();
+   }
+
+   @Bean
+   ContainerCheckpoints containerCheckpoints() {
+      return new ContainerCheckpoints(providerTypeToBlobStoreMap, container, userExecutor);
+   }
+
+   @Bean
+   StoredTweetIds storedTweetIds() {
+      return new StoredTweetIds();
+   }
+
+   @Bean
+   CreatedContainers createdContainers() {
+      return new CreatedContainers();
+   }
+
+   @Bean
+   Latencies latencies() {
+      return new Latencies();
+   }
+
    @Bean
    ServiceToStoredTweetStatuses serviceToStoredTweetStatuses() {
-      return new ServiceToStoredTweetStatuses(providerTypeToBlobStoreMap, container);
+      return new ServiceToStoredTweetStatuses(providerTypeToBlobStoreMap, container, userExecutor,
+            fetchesPerProvider, tweetCache, latencies(), segments);
    }
 
    @Bean
@@ -187,6 +264,7 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
       Map<String, Object> urlMap = Maps.newHashMapWithExpectedSize(2);
       urlMap.put("/store/*", storeTweetsController());
       urlMap.put("/tweets/*", addTweetsController());
+      urlMap.put("/tweets.json", tweetsJsonController());
       urlMap.put("/stores/*", enqueueStoresController());
       urlMap.put("/clear/*", clearTweetsController());
       mapping.setUrlMap(urlMap);
@@ -213,6 +291,7 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
       LOGGER.trace("About to purge request queue.");
       queue.destroy();
       LOGGER.trace("Request queue purged.");
+      userExecutor.shutdownNow();
    }
 
    /*
@@ -0,0 +1,72 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.ContainerNotFoundException;
+import org.testng.annotations.Test;
+
+/**
+ * Tests behavior of {@code CreatedContainers}
+ */
+@Test(groups = "unit")
+public class CreatedContainersTest {
+
+   public void testCreatesOnlyOnFirstUse() {
+      BlobStore store = createMock(BlobStore.class);
+      expect(store.createContainerInLocation(null, "container")).andReturn(true).once();
+      replay(store);
+
+      CreatedContainers created = new CreatedContainers();
+      created.create("stub", store, "container");
+      created.create("stub", store, "container");
+      verify(store);
+   }
+
+   public void testCreatesAgainAfterContainerIsMissing() {
+      BlobStore store = createMock(BlobStore.class);
+      expect(store.createContainerInLocation(null, "container")).andReturn(true).times(2);
+      replay(store);
+
+      CreatedContainers created = new CreatedContainers();
+      created.create("stub", store, "container");
+      created.failed("stub", new IllegalStateException("timed out"));
+      created.create("stub", store, "container");
+      created.failed("stub", new RuntimeException(new ContainerNotFoundException()));
+      created.create("stub", store, "container");
+      verify(store);
+   }
+
+   public void testCreatesAgainAfterInvalidate() {
+      BlobStore store = createMock(BlobStore.class);
+      expect(store.createContainerInLocation(null, "container")).andReturn(true).times(2);
+      replay(store);
+
+      CreatedContainers created = new CreatedContainers();
+      created.create("stub", store, "container");
+      created.invalidate("stub");
+      created.create("stub", store, "container");
+      verify(store);
+   }
+}
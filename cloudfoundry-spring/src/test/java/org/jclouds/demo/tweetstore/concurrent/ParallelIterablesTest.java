@@ -0,0 +1,179 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.concurrent;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests behavior of {@code ParallelIterables}
+ */
+@Test(groups = "unit")
+public class ParallelIterablesTest {
+   private static final List<Integer> INPUT = ImmutableList.copyOf(
+         ContiguousSet.create(Range.closedOpen(0, 50), DiscreteDomain.integers()));
+
+   private static class SlowIncrement implements Function<Integer, Integer> {
+      private final AtomicInteger inFlight = new AtomicInteger();
+      private final AtomicInteger maxInFlight = new AtomicInteger();
+
+      @Override
+      public Integer apply(Integer input) {
+         int current = inFlight.incrementAndGet();
+         while (true) {
+            int max = maxInFlight.get();
+            if (current <= max || maxInFlight.compareAndSet(max, current)) {
+               break;
+            }
+         }
+         try {
+            Thread.sleep(5);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         } finally {
+            inFlight.decrementAndGet();
+         }
+         return input + 1;
+      }
+   }
+
+   public void testPreservesOrderAndBoundsInFlight() {
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+         SlowIncrement function = new SlowIncrement();
+         List<Integer> result = ImmutableList.copyOf(ParallelIterables.transform(INPUT, function, executor, 3));
+         assertEquals(result.size(), INPUT.size());
+         for (int i = 0; i < INPUT.size(); i++) {
+            assertEquals(result.get(i), Integer.valueOf(INPUT.get(i) + 1));
+         }
+         assertTrue(function.maxInFlight.get() <= 3, "max in flight: " + function.maxInFlight.get());
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   public void testDoesNotDeadlockOnSaturatedExecutor() {
+      final ExecutorService executor = Executors.newFixedThreadPool(1);
+      try {
+         // the outer task occupies the only worker thread, so the inner tasks must run in the caller
+         List<List<Integer>> result = ImmutableList.copyOf(ParallelIterables.transform(ImmutableList.of(1, 2),
+               new Function<Integer, List<Integer>>() {
+                  @Override
+                  public List<Integer> apply(Integer input) {
+                     return ImmutableList.copyOf(ParallelIterables.transform(INPUT, new SlowIncrement(),
+                           executor, 4));
+                  }
+               }, executor, 2));
+         assertEquals(result.size(), 2);
+         assertEquals(result.get(1).get(49), Integer.valueOf(50));
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   public void testSameThreadExecutor() {
+      List<Integer> result = ImmutableList.copyOf(ParallelIterables.transform(INPUT, new SlowIncrement(),
+            sameThreadExecutor(), 5));
+      assertEquals(result.get(0), Integer.valueOf(1));
+      assertEquals(result.size(), INPUT.size());
+   }
+
+   public void testDeadline() {
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      final CountDownLatch release = new CountDownLatch(1);
+      final Set<Integer> applied = Sets.newConcurrentHashSet();
+      try {
+         List<Integer> result = ImmutableList.copyOf(ParallelIterables.transform(ImmutableList.of(0, 1, 2, 3),
+               new Function<Integer, Integer>() {
+                  @Override
+                  public Integer apply(Integer input) {
+                     applied.add(input);
+                     if (input == 1) {
+                        Uninterruptibles.awaitUninterruptibly(release);
+                     }
+                     return input + 1;
+                  }
+               }, executor, 2, Deadline.after(100, TimeUnit.MILLISECONDS), new Function<Integer, Integer>() {
+                  @Override
+                  public Integer apply(Integer input) {
+                     return -input;
+                  }
+               }));
+         // 2 was submitted before the deadline, 3 only after it
+         assertEquals(result, ImmutableList.of(1, -1, 3, -3));
+         assertEquals(applied, ImmutableSet.of(0, 1, 2));
+      } finally {
+         release.countDown();
+         executor.shutdownNow();
+      }
+   }
+
+   public void testImmediateResultsSkipTheExecutor() {
+      final Set<Integer> applied = Sets.newConcurrentHashSet();
+      Function<Integer, Integer> even = new Function<Integer, Integer>() {
+         @Override
+         public Integer apply(Integer input) {
+            return (input % 2 == 0) ? input : null;
+         }
+      };
+      Function<Integer, Integer> negate = new Function<Integer, Integer>() {
+         @Override
+         public Integer apply(Integer input) {
+            applied.add(input);
+            return -input;
+         }
+      };
+      // an executor that never runs anything
+      Executor rejecting = new Executor() {
+         @Override
+         public void execute(Runnable command) {
+            throw new AssertionError("submitted " + command);
+         }
+      };
+      List<Integer> result = ImmutableList.copyOf(ParallelIterables.transform(ImmutableList.of(0, 2, 4), even,
+            negate, rejecting, 1, Deadline.after(1, TimeUnit.MINUTES), negate));
+      assertEquals(result, ImmutableList.of(0, 2, 4));
+
+      result = ImmutableList.copyOf(ParallelIterables.transform(ImmutableList.of(0, 1, 2, 3), even, negate,
+            sameThreadExecutor(), 1, Deadline.none(), negate));
+      assertEquals(result, ImmutableList.of(0, -1, 2, -3));
+      assertEquals(applied, ImmutableSet.of(1, 3));
+   }
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.domain;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+/**
+ * Tests behavior of {@code StoredTweetStatus}
+ *
+ * @author Adrian Cole
+ */
+@Test(groups = "unit")
+public class StoredTweetStatusTest {
+
+   private static StoredTweetStatus tweet(String service, String id) {
+      return new StoredTweetStatus(service, "localhost", "container", id, "frank", "I love beans!", null);
+   }
+
+   public void testOrdersByNumericId() {
+      StoredTweetStatus error = new StoredTweetStatus("1", "localhost", "container", null, null, null, "timed out");
+      assertEquals(Ordering.natural().sortedCopy(ImmutableList.of(tweet("2", "10"), tweet("1", "9"), error,
+               tweet("1", "10"), tweet("1", "beans"))), ImmutableList.of(error, tweet("1", "beans"), tweet("1", "9"),
+               tweet("1", "10"), tweet("2", "10")));
+   }
+
+   public void testParsesTweetId() {
+      assertEquals(tweet("1", "9").getTweetId(), 9);
+      assertEquals(tweet("1", "beans").getTweetId(), StoredTweetStatus.NO_TWEET_ID);
+      assertEquals(tweet("1", null).getTweetId(), StoredTweetStatus.NO_TWEET_ID);
+   }
+
+   public void testEqualsIgnoresStatus() {
+      StoredTweetStatus tweet = tweet("1", "9");
+      StoredTweetStatus withStatus = new StoredTweetStatus("1", "localhost", "container", "9", "frank",
+               "I love beans!", "1ms");
+      assertEquals(withStatus, tweet);
+      assertEquals(withStatus.hashCode(), tweet.hashCode());
+      assertFalse(tweet.equals(tweet("2", "9")));
+      assertFalse(tweet.equals(tweet("1", "09")));
+   }
+}
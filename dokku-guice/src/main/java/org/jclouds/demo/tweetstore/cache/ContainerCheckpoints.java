@@ -0,0 +1,237 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.ws.rs.core.MediaType;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.demo.tweetstore.concurrent.Deadline;
+import org.jclouds.demo.tweetstore.concurrent.ParallelIterables;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.jclouds.javax.annotation.Nullable;
+import org.jclouds.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Tells the version of the tweets from the checkpoint blob in the tweet container of each
+ * blobstore. Every application instance that stores tweets rewrites the checkpoint with a new
+ * payload, so its ETag changes whenever the container has, whichever instance changed it. Unlike
+ * {@link ContainerVersions}, all instances therefore agree on the version.
+ */
+@Singleton
+public class ContainerCheckpoints {
+
+   /**
+    * The version of the tweets in all the containers, as of the checkpoints that were read.
+    */
+   public static class Version {
+      /**
+       * The version when a checkpoint could not be read.
+       */
+      public static final Version UNKNOWN = new Version(null, -1);
+
+      private final String token;
+      private final long lastModified;
+
+      private Version(@Nullable String token, long lastModified) {
+         this.token = token;
+         this.lastModified = lastModified;
+      }
+
+      /**
+       * @return false if a checkpoint could not be read, in which case the tweets may have changed
+       *         without the version changing
+       */
+      public boolean isKnown() {
+         return token != null;
+      }
+
+      /**
+       * @return a short token that changes whenever a checkpoint does, or null if the version is
+       *         not known
+       */
+      @Nullable
+      public String getToken() {
+         return token;
+      }
+
+      /**
+       * @return the time the newest checkpoint was written, or -1 if it is not known or a
+       *         container has no checkpoint, as after it has been cleared
+       */
+      public long getLastModified() {
+         return lastModified;
+      }
+
+      @Override
+      public int hashCode() {
+         return Objects.hashCode(token, lastModified);
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj)
+            return true;
+         if (!(obj instanceof Version))
+            return false;
+         Version other = (Version) obj;
+         return Objects.equal(token, other.token) && lastModified == other.lastModified;
+      }
+
+      @Override
+      public String toString() {
+         return isKnown() ? token : "unknown";
+      }
+   }
+
+   private static final ContainerCheckpoints NONE = new ContainerCheckpoints(
+            ImmutableSortedSet.<String> of(), null, null, null);
+
+   private final Set<String> services;
+   private final Map<String, BlobStoreContext> contexts;
+   private final String container;
+   private final ListeningExecutorService userExecutor;
+
+   @Resource
+   protected Logger logger = Logger.NULL;
+
+   @Inject
+   public ContainerCheckpoints(Map<String, BlobStoreContext> contexts,
+            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER) String container,
+            ListeningExecutorService userExecutor) {
+      this(ImmutableSortedSet.copyOf(contexts.keySet()), contexts, container, userExecutor);
+   }
+
+   private ContainerCheckpoints(Set<String> services, Map<String, BlobStoreContext> contexts, String container,
+            ListeningExecutorService userExecutor) {
+      this.services = services;
+      this.contexts = contexts;
+      this.container = container;
+      this.userExecutor = userExecutor;
+   }
+
+   /**
+    * @return checkpoints whose version is never known, for views that do not need one
+    */
+   @VisibleForTesting
+   public static ContainerCheckpoints none() {
+      return NONE;
+   }
+
+   /**
+    * Reads the metadata of the checkpoints of all the blobstores at once.
+    *
+    * @return the version of the tweets, which is not known if a checkpoint could not be read by the
+    *         deadline
+    */
+   public Version get(Deadline deadline) {
+      if (this == NONE) {
+         return Version.UNKNOWN;
+      }
+      Iterable<String> tags = ParallelIterables.transform(services, new Function<String, String>() {
+         @Override
+         public String apply(String service) {
+            try {
+               return tag(contexts.get(service).getBlobStore().blobMetadata(container,
+                        TweetStoreConstants.CHECKPOINT_NAME));
+            } catch (Exception e) {
+               logger.warn("Error reading the checkpoint of %s/%s: %s", service, container, e);
+               return null;
+            }
+         }
+      }, userExecutor, Math.max(services.size(), 1), deadline, new Function<String, String>() {
+         @Override
+         public String apply(String service) {
+            return null;
+         }
+      });
+      Hasher token = Hashing.murmur3_128().newHasher();
+      long lastModified = -1;
+      boolean missing = false;
+      Iterator<String> service = services.iterator();
+      for (String tag : tags) {
+         if (tag == null) {
+            return Version.UNKNOWN;
+         }
+         token.putString(service.next() + " " + tag + "\n", Charsets.UTF_8);
+         Long modified = Longs.tryParse(Iterables.getLast(Splitter.on(' ').split(tag)));
+         if (modified == null) {
+            missing = true;
+         } else {
+            lastModified = Math.max(lastModified, modified);
+         }
+      }
+      return new Version(token.hash().toString(), missing ? -1 : lastModified);
+   }
+
+   /**
+    * @return the ETag and modification time of the checkpoint, separated by a space, or "none"
+    */
+   private static String tag(@Nullable BlobMetadata checkpoint) {
+      if (checkpoint == null) {
+         return "none";
+      }
+      Date lastModified = checkpoint.getLastModified();
+      return checkpoint.getETag() + " " + (lastModified == null ? "none" : Long.toString(lastModified.getTime()));
+   }
+
+   /**
+    * @return a checkpoint blob recording the id of the newest tweet stored in the container. The
+    *         id is followed by a line that differs every time, so that the ETag of the checkpoint
+    *         changes even if the id does not.
+    */
+   public static Blob newCheckpoint(BlobStore store, long newest) {
+      Blob checkpoint = store.blobBuilder(TweetStoreConstants.CHECKPOINT_NAME).build();
+      checkpoint.setPayload(newest + "\n" + UUID.randomUUID() + "\n");
+      checkpoint.getPayload().getContentMetadata().setContentType(MediaType.TEXT_PLAIN);
+      return checkpoint;
+   }
+
+   /**
+    * @return the id recorded in the payload of a checkpoint, or null if there is none
+    */
+   @Nullable
+   public static Long parseCheckpoint(String payload) {
+      return Longs.tryParse(Iterables.getFirst(Splitter.on('\n').split(payload), "").trim());
+   }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Singleton;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
+/**
+ * The latencies of the most recent requests to each blobstore, from which the blobstores are
+ * ranked by how fast they answer and the time within which most of their requests complete is
+ * estimated. The ranking follows an exponentially weighted moving average of the latencies, so
+ * that it reflects which blobstore is fastest at the moment rather than over the whole history.
+ */
+@Singleton
+public class Latencies {
+   // the number of recent requests kept per blobstore
+   private static final int SAMPLES = 100;
+   // the weight of the latest request in the average, so that it mostly reflects the last ten or so
+   private static final double WEIGHT = 0.2;
+
+   private static class Samples {
+      private final long[] nanos = new long[SAMPLES];
+      private int count;
+      private int next;
+      private double average;
+
+      synchronized void add(long latency) {
+         average = (count == 0) ? latency : average + WEIGHT * (latency - average);
+         nanos[next] = latency;
+         next = (next + 1) % SAMPLES;
+         count = Math.min(count + 1, SAMPLES);
+      }
+
+      synchronized long[] sorted() {
+         long[] sorted = Arrays.copyOf(nanos, count);
+         Arrays.sort(sorted);
+         return sorted;
+      }
+
+      synchronized long average() {
+         return Math.round(average);
+      }
+   }
+
+   private final ConcurrentMap<String, Samples> samples = Maps.newConcurrentMap();
+
+   public void record(String service, long nanos) {
+      Samples recent = samples.get(service);
+      if (recent == null) {
+         Samples created = new Samples();
+         recent = samples.putIfAbsent(service, created);
+         if (recent == null) {
+            recent = created;
+         }
+      }
+      recent.add(nanos);
+   }
+
+   /**
+    * @param fraction
+    *           for example 0.95 for the 95th percentile
+    * @return the latency, in nanoseconds, within which the given fraction of the recent requests to
+    *         the blobstore completed, or -1 if there have been none
+    */
+   public long percentile(String service, double fraction) {
+      checkArgument(fraction > 0 && fraction <= 1, "fraction must be in (0, 1] but was %s", fraction);
+      Samples recent = samples.get(service);
+      if (recent == null) {
+         return -1;
+      }
+      long[] sorted = recent.sorted();
+      return sorted[Math.max((int) Math.ceil(fraction * sorted.length) - 1, 0)];
+   }
+
+   /**
+    * @return the moving average of the latency, in nanoseconds, of the recent requests to the
+    *         blobstore, or -1 if there have been none
+    */
+   public long average(String service) {
+      Samples recent = samples.get(service);
+      return (recent == null) ? -1 : recent.average();
+   }
+
+   /**
+    * @return the given blobstores ordered by their average latency, fastest first. Blobstores that
+    *         have not been requested yet come first, so that they get measured.
+    */
+   public List<String> fastestFirst(Iterable<String> services) {
+      final Map<String, Long> averages = Maps.newHashMap();
+      for (String service : services) {
+         averages.put(service, average(service));
+      }
+      return byValue(averages).sortedCopy(services);
+   }
+
+   /**
+    * @return the average latency, in nanoseconds, of each blobstore that has been requested,
+    *         fastest first
+    */
+   public Map<String, Long> ranking() {
+      Map<String, Long> averages = Maps.newHashMap();
+      for (Map.Entry<String, Samples> recent : samples.entrySet()) {
+         averages.put(recent.getKey(), recent.getValue().average());
+      }
+      ImmutableMap.Builder<String, Long> ranking = ImmutableMap.builder();
+      for (String service : byValue(averages).sortedCopy(averages.keySet())) {
+         ranking.put(service, averages.get(service));
+      }
+      return ranking.build();
+   }
+
+   private static Ordering<String> byValue(Map<String, Long> averages) {
+      return Ordering.natural().onResultOf(Functions.forMap(averages));
+   }
+}
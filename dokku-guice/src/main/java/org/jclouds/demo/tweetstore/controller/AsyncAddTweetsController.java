@@ -0,0 +1,181 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.controller;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints.Version;
+import org.jclouds.demo.tweetstore.cache.ContainerVersions;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
+import org.jclouds.demo.tweetstore.functions.ServiceToStoredTweetStatuses;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Variant of {@link AddTweetsController} that does not hold on to a container thread while the
+ * blobstores are being read. The request is suspended with a Jetty continuation, which Jetty 7
+ * supports without Servlet 3.0, the checkpoints are read and the tweets retrieved on the request
+ * executor, and the request is then dispatched again to render them.
+ * <p/>
+ * Views served from the snapshot already in memory are rendered right away, without suspending
+ * the request. Their version is that of the checkpoints last read, which are read again in the
+ * background, so that a change by another application instance reloads the snapshot for the
+ * requests that follow.
+ * <p/>
+ * The request executor must not be the user executor: a retrieval waits for the listings and
+ * reads it submits to the user executor, which it would otherwise starve once every user thread
+ * is waiting.
+ * 
+ * @author Adrian Cole
+ */
+@Singleton
+public class AsyncAddTweetsController extends AddTweetsController {
+
+   /** The serialVersionUID */
+   private static final long serialVersionUID = -6325431839148707211L;
+   private static final String CHECKPOINTS = AsyncAddTweetsController.class.getName() + ".checkpoints";
+   private static final String VERSION = AsyncAddTweetsController.class.getName() + ".version";
+   private static final String FAILURE = AsyncAddTweetsController.class.getName() + ".failure";
+
+   /**
+    * Name of the executor that runs the retrievals of suspended requests.
+    */
+   public static final String REQUEST_EXECUTOR = "jclouds.tweetstore.request-executor";
+
+   private final Executor requestExecutor;
+   private final AtomicBoolean readingCheckpoints = new AtomicBoolean();
+
+   @Inject
+   AsyncAddTweetsController(Map<String, BlobStoreContext> contexts,
+            ServiceToStoredTweetStatuses blobStoreContextToContainerResult,
+            ListeningExecutorService userExecutor, ContainerVersions versions, ContainerCheckpoints checkpoints,
+            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE) long snapshotMaxAge,
+            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_REQUEST_TIMEOUT) long requestTimeout,
+            Latencies latencies, @Named(REQUEST_EXECUTOR) Executor requestExecutor) {
+      super(contexts, blobStoreContextToContainerResult, userExecutor, versions, checkpoints, snapshotMaxAge,
+               requestTimeout, latencies);
+      this.requestExecutor = requestExecutor;
+   }
+
+   @Override
+   Version currentVersion(final HttpServletRequest request, final Map<String, String> markers, final int limit,
+            final boolean merged) {
+      final Continuation continuation = ContinuationSupport.getContinuation(request);
+      if (continuation.isResumed()) {
+         Version currentVersion = (Version) request.getAttribute(CHECKPOINTS);
+         // not read if the request executor rejected the task
+         return (currentVersion != null) ? currentVersion : Version.UNKNOWN;
+      }
+      if (isInMemory(markers, merged)) {
+         readCheckpointsInBackground();
+         return lastCheckpoints();
+      }
+      // no need to time out the request, as the blobstores are only waited for until the request timeout
+      continuation.setTimeout(0);
+      continuation.suspend();
+      try {
+         requestExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  Version currentVersion = readCheckpoints();
+                  request.setAttribute(CHECKPOINTS, currentVersion);
+                  // the tweets are not needed if the copy of the client is still valid
+                  if (!currentVersion.isKnown()
+                           || !isNotModified(request, currentVersion.getToken(), currentVersion.getLastModified())) {
+                     Version version = AsyncAddTweetsController.super.addTweetsToRequest(request, markers, limit,
+                              merged, currentVersion);
+                     // retrieve the tweets here rather than while the page is being rendered
+                     request.setAttribute("tweets", retrieve(request.getAttribute("tweets")));
+                     request.setAttribute(VERSION, version);
+                  }
+               } catch (Exception e) {
+                  request.setAttribute(FAILURE, e);
+               } finally {
+                  continuation.resume();
+               }
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         request.setAttribute(FAILURE, e);
+         continuation.resume();
+      }
+      return null;
+   }
+
+   @Override
+   Version addTweetsToRequest(HttpServletRequest request, Map<String, String> markers, int limit, boolean merged,
+            Version currentVersion) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!ContinuationSupport.getContinuation(request).isResumed()) {
+         // served from memory
+         return super.addTweetsToRequest(request, markers, limit, merged, currentVersion);
+      }
+      Throwable failure = (Throwable) request.getAttribute(FAILURE);
+      if (failure != null) {
+         throw new ExecutionException(failure);
+      }
+      return (Version) request.getAttribute(VERSION);
+   }
+
+   /**
+    * Reads the checkpoints on the request executor, unless they are being read already.
+    */
+   private void readCheckpointsInBackground() {
+      if (!readingCheckpoints.compareAndSet(false, true)) {
+         return;
+      }
+      try {
+         requestExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  readCheckpoints();
+               } finally {
+                  readingCheckpoints.set(false);
+               }
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         // read by a later request
+         readingCheckpoints.set(false);
+      }
+   }
+
+   // the snapshots are already immutable lists, which there is no need to copy for every request
+   private static List<?> retrieve(Object tweets) {
+      return (tweets instanceof ImmutableList) ? (List<?>) tweets : ImmutableList.copyOf((Iterable<?>) tweets);
+   }
+}
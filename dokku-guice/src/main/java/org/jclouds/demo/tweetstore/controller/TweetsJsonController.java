@@ -0,0 +1,152 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.controller;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.demo.tweetstore.concurrent.Deadline;
+import org.jclouds.demo.tweetstore.concurrent.ParallelIterables;
+import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
+import org.jclouds.demo.tweetstore.functions.ServiceToStoredTweetStatuses;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.jclouds.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes the stored tweets as a JSON array, one record at a time as they are retrieved, so that
+ * clients receive the first tweets before the last ones have been fetched and the response is
+ * never held in memory as a whole. Each listing is read once and dropped page by page; only the
+ * names and ETags of the blobs are kept, for the next listing to compare with.
+ *
+ * @author Adrian Cole
+ */
+@Singleton
+public class TweetsJsonController extends HttpServlet {
+
+   /** The serialVersionUID */
+   private static final long serialVersionUID = -2512339640209469382L;
+   private final Map<String, BlobStoreContext> contexts;
+   private final ServiceToStoredTweetStatuses blobStoreContextToContainerResult;
+   private final ListeningExecutorService userExecutor;
+   private final long requestTimeout;
+
+   @Resource
+   protected Logger logger = Logger.NULL;
+
+   @VisibleForTesting
+   TweetsJsonController(Map<String, BlobStoreContext> contexts,
+            ServiceToStoredTweetStatuses blobStoreContextToContainerResult) {
+      this(contexts, blobStoreContextToContainerResult, sameThreadExecutor(), 0);
+   }
+
+   /**
+    * @param requestTimeout
+    *           milliseconds after which the blobstores that have not answered are written as timed
+    *           out, so that a hung blobstore does not hold the response; 0 to wait for them
+    */
+   @Inject
+   TweetsJsonController(Map<String, BlobStoreContext> contexts,
+            ServiceToStoredTweetStatuses blobStoreContextToContainerResult,
+            ListeningExecutorService userExecutor,
+            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_REQUEST_TIMEOUT) long requestTimeout) {
+      checkArgument(requestTimeout >= 0, "%s must not be negative but was %s",
+               TweetStoreConstants.PROPERTY_TWEETSTORE_REQUEST_TIMEOUT, requestTimeout);
+      this.contexts = contexts;
+      this.blobStoreContextToContainerResult = blobStoreContextToContainerResult;
+      this.userExecutor = userExecutor;
+      this.requestTimeout = requestTimeout;
+   }
+
+   @Override
+   protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+      // no content length, so the container sends the tweets in chunks as the buffer fills up
+      response.setContentType(MediaType.APPLICATION_JSON);
+      response.setCharacterEncoding(Charsets.UTF_8.name());
+      try {
+         writeTweets(contexts.keySet(), response.getWriter());
+      } catch (Exception e) {
+         logger.error(e, "Error streaming tweets");
+         throw new ServletException(e);
+      }
+   }
+
+   /**
+    * Lists all the given blobstores at once and writes their tweets to {@code out}, in the order
+    * of the blobstores. The tweets of a blobstore are retrieved while it is being written. A
+    * blobstore that has not answered within the request timeout is written as a "timed out" row.
+    */
+   @VisibleForTesting
+   void writeTweets(Set<String> services, Writer out) throws IOException {
+      final Deadline deadline = Deadline.after(requestTimeout, TimeUnit.MILLISECONDS);
+      JsonWriter writer = new JsonWriter(out);
+      writer.beginArray();
+      // commit the response before the blobstores have been listed
+      writer.flush();
+      for (Iterable<StoredTweetStatus> statuses : ParallelIterables.transform(services,
+               new Function<String, Iterable<StoredTweetStatus>>() {
+                  @Override
+                  public Iterable<StoredTweetStatus> apply(String service) {
+                     return blobStoreContextToContainerResult.apply(service, deadline);
+                  }
+               }, userExecutor, Math.max(services.size(), 1))) {
+         for (StoredTweetStatus status : statuses) {
+            writeTweet(writer, status);
+         }
+         writer.flush();
+      }
+      writer.endArray();
+      writer.flush();
+   }
+
+   private static void writeTweet(JsonWriter writer, StoredTweetStatus status) throws IOException {
+      writer.beginObject();
+      writer.name("service").value(status.getService());
+      writer.name("host").value(status.getHost());
+      writer.name("container").value(status.getContainer());
+      writer.name("id").value(status.getId());
+      writer.name("from").value(status.getFrom());
+      writer.name("tweet").value(status.getTweet());
+      writer.name("status").value(status.getStatus());
+      writer.endObject();
+   }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.domain;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A tweet as held by all the blobstores at once: its text is retrieved from only one of them, and
+ * each blobstore that holds it has a status, which is the retrieval latency for the one it was
+ * retrieved from.
+ * 
+ * @author Adrian Cole
+ */
+public class MergedTweetStatus implements Serializable {
+
+   /** The serialVersionUID */
+   private static final long serialVersionUID = 2371785408624946917L;
+   /**
+    * The status of the blobstores that hold the tweet but that it was not retrieved from.
+    */
+   public static final String PRESENT = "present";
+
+   private final String id;
+   private final String from;
+   private final String tweet;
+   private final Map<String, String> statuses;
+
+   /**
+    * @param statuses
+    *           the status of each blobstore that holds the tweet, by blobstore
+    */
+   public MergedTweetStatus(String id, String from, String tweet, Map<String, String> statuses) {
+      this.id = id;
+      this.from = from;
+      this.tweet = tweet;
+      this.statuses = ImmutableMap.copyOf(statuses);
+   }
+
+   public String getId() {
+      return id;
+   }
+
+   public String getFrom() {
+      return from;
+   }
+
+   public String getTweet() {
+      return tweet;
+   }
+
+   /**
+    * @return the status of each blobstore that holds the tweet, by blobstore; listing errors have
+    *         no id and the status of the blobstore that could not be listed
+    */
+   public Map<String, String> getStatuses() {
+      return statuses;
+   }
+
+   @Override
+   public int hashCode() {
+      return Objects.hashCode(id, from, tweet, statuses);
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (this == obj)
+         return true;
+      if (obj == null || getClass() != obj.getClass())
+         return false;
+      MergedTweetStatus other = (MergedTweetStatus) obj;
+      return Objects.equal(id, other.id) && Objects.equal(from, other.from) && Objects.equal(tweet, other.tweet)
+               && statuses.equals(other.statuses);
+   }
+
+   @Override
+   public String toString() {
+      return "MergedTweetStatus [id=" + id + ", from=" + from + ", tweet=" + tweet + ", statuses=" + statuses + "]";
+   }
+}
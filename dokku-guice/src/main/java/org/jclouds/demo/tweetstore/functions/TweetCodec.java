@@ -0,0 +1,203 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.functions;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.ws.rs.core.MediaType;
+
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.jclouds.javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Compresses the payloads of the blobs that hold tweets with a {@link Deflater} primed with a
+ * preset dictionary of the words common in tweets. Tweets are too short to compress well on their
+ * own, as there is little for them to repeat.
+ * <p/>
+ * The id of the dictionary is kept in the user metadata of each blob, so that blobs compressed
+ * with any of the dictionaries, or not compressed at all, can be read back. A payload is only
+ * compressed if that makes it smaller.
+ */
+public class TweetCodec {
+
+   /**
+    * Id of the dictionary built from the vocabulary of tweets about the cloud. Dictionaries are
+    * never changed once blobs have been compressed with them; a new one gets a new id.
+    */
+   public static final String TWEETS_DICTIONARY = "tweets1";
+
+   // built by TweetDictionaryBuilder, next to the tests, from the tweets in tweets1-corpus.txt,
+   // which are written by hand, so the words are a placeholder until a dictionary is built from
+   // the tweets stored; deflate finds matches closer to the end of the dictionary with shorter
+   // codes, so the most common words come last
+   private static final Map<String, byte[]> DICTIONARIES = ImmutableMap.of(TWEETS_DICTIONARY, Joiner.on(' ').join(
+            "", "the conference", "love it", "jclouds #cloud", "is a", "get the", "works", "to use", "talk today",
+            "storage in", "release is", "jclouds is", "how", "conference next", "azure blobstore", "at http://t.co/",
+            "all of", "S3 http://t.co/", "out http://t.co/", "of", "just", "good", "Going to", "all who", "a great",
+            "I think", "with java", "to all", "the great", "java https://t.co/", "is out", "help with", "great way",
+            "from", "cloud meetup", "I love", "Google cloud", "#cloud #java", "the rackspace", "who came", "think",
+            "there", "the best", "jclouds http://t.co/", "now", "for all", "all the", "new jclouds",
+            "blobstore http://t.co/", "jclouds release", "java conference", "to the", "cloud is", "API http://t.co/",
+            "so much", "API for", "talk about", "great talk", "cloud with", "azure", "all", "https://t.co/",
+            "thanks to", "is the", "check out", "at the", "and", "today", "the java", "way to", "rackspace cloud",
+            "conference", "rackspace", "amazon S3", "the jclouds", "new release", "in the", "jclouds blobstore",
+            "with the", "with jclouds", "is", "tweetstore demo", "great", "release", "the new", "about the", "with",
+            "thanks for", "the tweetstore", "for the", "#java #cloud", "RT @", "thanks", "cloud storage", "#java",
+            "#cloud", "jclouds", "blobstore API", "the blobstore", "the cloud", "blobstore", "http://t.co/", "the",
+            "").getBytes(Charsets.UTF_8));
+
+   private static final TweetCodec NONE = new TweetCodec(null);
+
+   @Nullable
+   private final String dictionaryId;
+
+   private TweetCodec(@Nullable String dictionaryId) {
+      this.dictionaryId = dictionaryId;
+   }
+
+   @VisibleForTesting
+   static byte[] getDictionary(String dictionaryId) {
+      return DICTIONARIES.get(dictionaryId).clone();
+   }
+
+   /**
+    * @return a codec that stores payloads as they are
+    */
+   public static TweetCodec none() {
+      return NONE;
+   }
+
+   /**
+    * @return a codec that compresses payloads with the given dictionary, or that stores them as
+    *         they are if no dictionary is given
+    */
+   public static TweetCodec forDictionary(@Nullable String dictionaryId) {
+      if (Strings.isNullOrEmpty(dictionaryId)) {
+         return NONE;
+      }
+      checkArgument(DICTIONARIES.containsKey(dictionaryId), "unknown dictionary %s, expected one of %s",
+            dictionaryId, DICTIONARIES.keySet());
+      return new TweetCodec(dictionaryId);
+   }
+
+   /**
+    * Sets the payload of the blob to the text, compressed if that makes it smaller, in which case
+    * the dictionary is recorded in the user metadata and the content type is
+    * {@link MediaType#APPLICATION_OCTET_STREAM}.
+    * 
+    * @return whether the payload was compressed
+    */
+   public boolean setPayload(Blob blob, String text, String contentType) {
+      if (dictionaryId != null) {
+         byte[] plain = text.getBytes(Charsets.UTF_8);
+         byte[] compressed = deflate(plain, DICTIONARIES.get(dictionaryId));
+         if (compressed.length < plain.length) {
+            blob.setPayload(compressed);
+            blob.getPayload().getContentMetadata().setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            blob.getMetadata().getUserMetadata().put(TweetStoreConstants.DICTIONARY_ID, dictionaryId);
+            return true;
+         }
+      }
+      blob.setPayload(text);
+      blob.getPayload().getContentMetadata().setContentType(contentType);
+      return false;
+   }
+
+   /**
+    * @return the text of the blob, decompressed with the dictionary named in its user metadata, if
+    *         any
+    */
+   public static String getText(Blob blob) throws IOException {
+      byte[] payload;
+      InputStream in = blob.getPayload().openStream();
+      try {
+         payload = ByteStreams.toByteArray(in);
+      } finally {
+         in.close();
+      }
+      String dictionaryId = blob.getMetadata().getUserMetadata().get(TweetStoreConstants.DICTIONARY_ID);
+      if (dictionaryId == null) {
+         return new String(payload, Charsets.UTF_8);
+      }
+      byte[] dictionary = DICTIONARIES.get(dictionaryId);
+      if (dictionary == null) {
+         throw new IOException("unknown dictionary " + dictionaryId + " of " + blob.getMetadata().getName());
+      }
+      return new String(inflate(payload, dictionary), Charsets.UTF_8);
+   }
+
+   // raw deflate, without the zlib header and checksums; the dictionary is named in the metadata
+   @VisibleForTesting
+   static byte[] deflate(byte[] plain, byte[] dictionary) {
+      Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+      try {
+         deflater.setDictionary(dictionary);
+         deflater.setInput(plain);
+         deflater.finish();
+         ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length);
+         byte[] buffer = new byte[1024];
+         while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+         }
+         return out.toByteArray();
+      } finally {
+         deflater.end();
+      }
+   }
+
+   private static byte[] inflate(byte[] compressed, byte[] dictionary) throws IOException {
+      Inflater inflater = new Inflater(true);
+      try {
+         inflater.setDictionary(dictionary);
+         // raw inflate needs an extra byte past the end of the input
+         inflater.setInput(Arrays.copyOf(compressed, compressed.length + 1));
+         ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 2);
+         byte[] buffer = new byte[1024];
+         while (!inflater.finished()) {
+            int inflated = inflater.inflate(buffer);
+            if (inflated == 0 && inflater.needsInput()) {
+               throw new IOException("truncated payload");
+            }
+            out.write(buffer, 0, inflated);
+         }
+         return out.toByteArray();
+      } catch (DataFormatException e) {
+         throw new IOException("corrupt payload", e);
+      } finally {
+         inflater.end();
+      }
+   }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.view;
+
+import static com.google.common.base.Strings.nullToEmpty;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.jclouds.demo.tweetstore.domain.MergedTweetStatus;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.escape.Escaper;
+import com.google.common.html.HtmlEscapers;
+
+/**
+ * Renders the merged tweets as an HTML table with a column per blobstore, holding the status of
+ * the tweet in that blobstore, or "missing" if the blobstore does not hold it. Like
+ * {@link TweetsTableWriter}, each row is written as soon as it is read from the given tweets.
+ *
+ * @author Adrian Cole
+ */
+public class MergedTweetsTableWriter {
+   private static final List<String> HEADERS = ImmutableList.of("Tweet ID", "Who Said it", "Tweet");
+   private static final Escaper ESCAPER = HtmlEscapers.htmlEscaper();
+
+   private final Writer out;
+   private final List<String> services;
+
+   /**
+    * @param services
+    *           the blobstores to show a column for, in column order
+    */
+   public MergedTweetsTableWriter(Writer out, List<String> services) {
+      this.out = out;
+      this.services = ImmutableList.copyOf(services);
+   }
+
+   public void write(Iterable<MergedTweetStatus> tweets) throws IOException {
+      out.write("<table cellpadding=\"5\" cellspacing=\"1\" class=\"staticheader\">\n<thead>\n<tr>");
+      for (String header : HEADERS) {
+         writeHeader(header);
+      }
+      for (String service : services) {
+         writeHeader(service);
+      }
+      out.write("</tr>\n</thead>\n<tbody>\n");
+      // send the header before waiting for the first tweet
+      out.flush();
+      int rows = 0;
+      for (MergedTweetStatus tweet : tweets) {
+         out.write(rows++ % 2 == 0 ? "<tr class=\"odd\">" : "<tr class=\"even\">");
+         writeCell(tweet.getId());
+         writeCell(tweet.getFrom());
+         writeCell(tweet.getTweet());
+         for (String service : services) {
+            String status = tweet.getStatuses().get(service);
+            // listing errors only have a status for the blobstore that failed
+            writeCell((status != null || tweet.getId() == null) ? status : "missing");
+         }
+         out.write("</tr>\n");
+      }
+      if (rows == 0) {
+         out.write("<tr class=\"empty\"><td colspan=\"" + (HEADERS.size() + services.size())
+                  + "\">Nothing found to display.</td></tr>\n");
+      }
+      out.write("</tbody>\n</table>\n");
+   }
+
+   private void writeHeader(String header) throws IOException {
+      out.write("<th>");
+      out.write(ESCAPER.escape(header));
+      out.write("</th>");
+   }
+
+   private void writeCell(String value) throws IOException {
+      out.write("<td>");
+      out.write(ESCAPER.escape(nullToEmpty(value)));
+      out.write("</td>");
+   }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.TransientApiMetadata;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.testng.annotations.Test;
+
+/**
+ * Tests behavior of {@code StoredTweetIds}
+ */
+@Test(groups = "unit")
+public class StoredTweetIdsTest {
+
+   BlobStore createStore(String container, String... names) {
+      BlobStore store = ContextBuilder.newBuilder(TransientApiMetadata.builder().build())
+               .build(BlobStoreContext.class).getBlobStore();
+      store.createContainerInLocation(null, container);
+      for (String name : names) {
+         store.putBlob(container, store.blobBuilder(name).payload("tweet " + name).build());
+      }
+      return store;
+   }
+
+   public void testRebuildsFromListing() throws IOException {
+      String container = StoredTweetIdsTest.class.getName() + "#rebuild";
+      BlobStore store = createStore(container, "1", "2", TweetStoreConstants.CHECKPOINT_NAME);
+      StoredTweetIds.Ids ids = new StoredTweetIds().get("stub", store, container);
+
+      assertTrue(ids.mightContain(1));
+      assertTrue(ids.mightContain(2));
+      assertFalse(ids.mightContain(3));
+   }
+
+   public void testReadsSavedIds() throws IOException {
+      String container = StoredTweetIdsTest.class.getName() + "#saved";
+      BlobStore store = createStore(container);
+      StoredTweetIds storedIds = new StoredTweetIds();
+      storedIds.get("stub", store, container).put(5);
+      storedIds.save("stub", store, container);
+      assertTrue(store.blobExists(container, TweetStoreConstants.TWEET_IDS_NAME));
+
+      // there is no blob to list for tweet 5
+      assertTrue(new StoredTweetIds().get("stub", store, container).mightContain(5));
+   }
+
+   public void testRebuildsFullIdsFromListing() throws IOException {
+      String container = StoredTweetIdsTest.class.getName() + "#full";
+      BlobStore store = createStore(container, "1");
+      StoredTweetIds storedIds = new StoredTweetIds();
+      StoredTweetIds.Ids full = storedIds.get("stub", store, container);
+      for (long id = 2; id <= StoredTweetIds.EXPECTED_TWEETS + 1; id++) {
+         full.put(id);
+      }
+      assertSame(storedIds.get("stub", store, container), full);
+
+      full.put(StoredTweetIds.EXPECTED_TWEETS + 2);
+      StoredTweetIds.Ids rebuilt = storedIds.get("stub", store, container);
+      assertNotSame(rebuilt, full);
+      assertTrue(rebuilt.mightContain(1));
+      assertSame(storedIds.get("stub", store, container), rebuilt);
+   }
+
+   public void testRebuildsIdsSavedWithoutTheirSize() throws IOException {
+      String container = StoredTweetIdsTest.class.getName() + "#unsized";
+      BlobStore store = createStore(container, "1");
+      StoredTweetIds storedIds = new StoredTweetIds();
+      storedIds.get("stub", store, container).put(5);
+      storedIds.save("stub", store, container);
+      Blob saved = store.getBlob(container, TweetStoreConstants.TWEET_IDS_NAME);
+      saved.getMetadata().getUserMetadata().clear();
+      store.putBlob(container, saved);
+
+      // rebuilt from the listing, which has no blob for tweet 5
+      StoredTweetIds.Ids ids = new StoredTweetIds().get("stub", store, container);
+      assertTrue(ids.mightContain(1));
+      assertFalse(ids.mightContain(5));
+   }
+
+   public void testInvalidateForgetsIds() throws IOException {
+      String container = StoredTweetIdsTest.class.getName() + "#invalidate";
+      BlobStore store = createStore(container, "1");
+      StoredTweetIds storedIds = new StoredTweetIds();
+      assertTrue(storedIds.get("stub", store, container).mightContain(1));
+
+      store.clearContainer(container);
+      storedIds.invalidate("stub");
+      assertFalse(storedIds.get("stub", store, container).mightContain(1));
+   }
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.jclouds.demo.tweetstore.cache.TweetCache.Tweet;
+import org.testng.annotations.Test;
+
+/**
+ * Tests behavior of {@code TweetCache}
+ */
+@Test(groups = "unit")
+public class TweetCacheTest {
+
+   public void testHitsRequireMatchingETag() {
+      TweetCache cache = new TweetCache(1024);
+      cache.put("stub", "container", "1", "etag1", new Tweet("frank", "I love beans!"));
+
+      assertEquals(cache.getIfPresent("stub", "container", "1", "etag1").getText(), "I love beans!");
+      assertNull(cache.getIfPresent("stub", "container", "1", "etag2"));
+      assertNull(cache.getIfPresent("stub2", "container", "1", "etag1"));
+      assertEquals(cache.stats().hitCount(), 1);
+      assertEquals(cache.stats().missCount(), 2);
+   }
+
+   public void testTweetsWithoutETagAreNotCached() {
+      TweetCache cache = new TweetCache(1024);
+      cache.put("stub", "container", "1", null, new Tweet("frank", "I love beans!"));
+
+      assertNull(cache.getIfPresent("stub", "container", "1", null));
+      assertEquals(cache.stats().requestCount(), 0);
+   }
+
+   public void testEvictsWhenOverBudget() {
+      // each entry weighs 2 * (4 + 1 + 2 + 1 + 5 + 8) = 42 bytes
+      TweetCache cache = new TweetCache(1000);
+      for (int i = 10; i < 110; i++) {
+         cache.put("stub", "c", "" + i, "e", new Tweet("frank", "tweet #1"));
+      }
+      int cached = 0;
+      for (int i = 10; i < 110; i++) {
+         if (cache.getIfPresent("stub", "c", "" + i, "e") != null) {
+            cached++;
+         }
+      }
+      assert cached > 0 && cached <= 1000 / 42 : cached;
+   }
+
+   public void testZeroBudgetDisablesCaching() {
+      TweetCache cache = new TweetCache(0);
+      cache.put("stub", "c", "1", "e", new Tweet("frank", "tweet #1"));
+
+      assertNull(cache.getIfPresent("stub", "c", "1", "e"));
+   }
+}
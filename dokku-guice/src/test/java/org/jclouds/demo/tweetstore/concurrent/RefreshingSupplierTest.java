@@ -0,0 +1,132 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.concurrent;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests behavior of {@code RefreshingSupplier}
+ */
+@Test(groups = "unit")
+public class RefreshingSupplierTest {
+
+   private static class CountingSupplier implements Supplier<Integer> {
+      private final AtomicInteger loads = new AtomicInteger();
+
+      @Override
+      public Integer get() {
+         return loads.incrementAndGet();
+      }
+   }
+
+   private static class VersionSupplier implements Supplier<Long> {
+      private final AtomicLong version = new AtomicLong();
+
+      @Override
+      public Long get() {
+         return version.get();
+      }
+   }
+
+   private static class QueueingExecutor implements Executor {
+      private final List<Runnable> tasks = Lists.newArrayList();
+
+      @Override
+      public void execute(Runnable command) {
+         tasks.add(command);
+      }
+
+      void runAll() {
+         for (Runnable task : tasks) {
+            task.run();
+         }
+         tasks.clear();
+      }
+   }
+
+   public void testServesStaleValueWhileRefreshing() {
+      CountingSupplier delegate = new CountingSupplier();
+      VersionSupplier version = new VersionSupplier();
+      QueueingExecutor executor = new QueueingExecutor();
+      Supplier<Integer> supplier = new RefreshingSupplier<Integer>(delegate, version, executor, 1,
+               TimeUnit.HOURS);
+
+      assertEquals(supplier.get(), Integer.valueOf(1));
+      assertEquals(supplier.get(), Integer.valueOf(1));
+      assertEquals(executor.tasks.size(), 0);
+
+      version.version.incrementAndGet();
+      assertEquals(supplier.get(), Integer.valueOf(1));
+      assertEquals(supplier.get(), Integer.valueOf(1));
+      // only one refresh at a time
+      assertEquals(executor.tasks.size(), 1);
+
+      executor.runAll();
+      assertEquals(supplier.get(), Integer.valueOf(2));
+      assertEquals(executor.tasks.size(), 0);
+   }
+
+   public void testRefreshesAfterMaxAge() throws InterruptedException {
+      CountingSupplier delegate = new CountingSupplier();
+      QueueingExecutor executor = new QueueingExecutor();
+      Supplier<Integer> supplier = new RefreshingSupplier<Integer>(delegate, new VersionSupplier(), executor,
+               10, TimeUnit.MILLISECONDS);
+
+      assertEquals(supplier.get(), Integer.valueOf(1));
+      Thread.sleep(20);
+      assertEquals(supplier.get(), Integer.valueOf(1));
+      executor.runAll();
+      assertEquals(supplier.get(), Integer.valueOf(2));
+   }
+
+   public void testIsLoadedOnceTheFirstValueIs() {
+      RefreshingSupplier<Integer> supplier = new RefreshingSupplier<Integer>(new CountingSupplier(),
+               new VersionSupplier(), new QueueingExecutor(), 1, TimeUnit.HOURS);
+
+      assertFalse(supplier.isLoaded());
+      supplier.get();
+      assertTrue(supplier.isLoaded());
+   }
+
+   public void testSameThreadExecutorRefreshesBeforeReturning() {
+      CountingSupplier delegate = new CountingSupplier();
+      VersionSupplier version = new VersionSupplier();
+      Supplier<Integer> supplier = new RefreshingSupplier<Integer>(delegate, version, sameThreadExecutor(), 1,
+               TimeUnit.HOURS);
+
+      assertEquals(supplier.get(), Integer.valueOf(1));
+      version.version.incrementAndGet();
+      assertEquals(supplier.get(), Integer.valueOf(2));
+      assertEquals(supplier.get(), Integer.valueOf(2));
+   }
+}
@@ -18,17 +18,27 @@
  */
 package org.jclouds.demo.tweetstore.controller;
 
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.TransientApiMetadata;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
 import org.jclouds.demo.tweetstore.functions.ServiceToStoredTweetStatuses;
 import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
@@ -36,7 +46,12 @@ import org.testng.annotations.Test;
 import org.testng.collections.Maps;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * Tests behavior of {@code AddTweetsController}
@@ -75,4 +90,155 @@ public class AddTweetsControllerTest {
                "1", "frank", "I love beans!", null)));
 
    }
+
+   public void testStoreTweetsInParallel() throws IOException, InterruptedException, ExecutionException {
+      String container = AddTweetsControllerTest.class.getName() + "#container";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+
+      ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container);
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+      try {
+         AddTweetsController controller = new AddTweetsController(contexts, function, executor);
+         List<StoredTweetStatus> list = controller.apply(ImmutableSet.of("1", "2"));
+         assertEquals(list, ImmutableList.of(new StoredTweetStatus("1", "localhost", container, "1",
+                  "frank", "I love beans!", null), new StoredTweetStatus("2", "localhost", container,
+                  "1", "frank", "I love beans!", null)));
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   public void testMergesTweetsById() throws InterruptedException, ExecutionException {
+      String container = AddTweetsControllerTest.class.getName() + "#merge";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      for (String name : new String[] { "10", "9" }) {
+         Blob blob = contexts.get("2").getBlobStore().blobBuilder(name).build();
+         blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+         blob.setPayload("I love beans!");
+         contexts.get("2").getBlobStore().putBlob(container, blob);
+      }
+
+      ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container);
+      AddTweetsController controller = new AddTweetsController(contexts, function);
+      // streamed in listing order
+      assertEquals(ImmutableList.copyOf(controller.mergeTweets(ImmutableSet.of("1", "2"))), ImmutableList.of(
+               new StoredTweetStatus("1", "localhost", container, "1", "frank", "I love beans!", null),
+               new StoredTweetStatus("2", "localhost", container, "1", "frank", "I love beans!", null),
+               new StoredTweetStatus("2", "localhost", container, "10", "frank", "I love beans!", null),
+               new StoredTweetStatus("2", "localhost", container, "9", "frank", "I love beans!", null)));
+      // sorted by numeric id once collected
+      assertEquals(controller.apply(ImmutableSet.of("1", "2")), ImmutableList.of(
+               new StoredTweetStatus("1", "localhost", container, "1", "frank", "I love beans!", null),
+               new StoredTweetStatus("2", "localhost", container, "1", "frank", "I love beans!", null),
+               new StoredTweetStatus("2", "localhost", container, "9", "frank", "I love beans!", null),
+               new StoredTweetStatus("2", "localhost", container, "10", "frank", "I love beans!", null)));
+   }
+
+   public void testPaginatesEachContainer() throws InterruptedException, ExecutionException {
+      String container = AddTweetsControllerTest.class.getName() + "#pages";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      for (BlobStoreContext context : contexts.values()) {
+         for (String name : new String[] { "2", "3" }) {
+            Blob blob = context.getBlobStore().blobBuilder(name).build();
+            blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+            blob.setPayload("I love beans!");
+            context.getBlobStore().putBlob(container, blob);
+         }
+      }
+
+      ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container);
+      AddTweetsController controller = new AddTweetsController(contexts, function);
+      PageSet<StoredTweetStatus> firstPage = controller.apply(ImmutableMap.of("1", "", "2", ""), 2);
+      assertEquals(ImmutableList.copyOf(firstPage), ImmutableList.of(
+               new StoredTweetStatus("1", "localhost", container, "1", "frank", "I love beans!", null),
+               new StoredTweetStatus("2", "localhost", container, "1", "frank", "I love beans!", null),
+               new StoredTweetStatus("1", "localhost", container, "2", "frank", "I love beans!", null),
+               new StoredTweetStatus("2", "localhost", container, "2", "frank", "I love beans!", null)));
+
+      PageSet<StoredTweetStatus> secondPage = controller.apply(
+               AddTweetsController.fromContinuationToken(firstPage.getNextMarker()), 2);
+      assertEquals(ImmutableList.copyOf(secondPage), ImmutableList.of(
+               new StoredTweetStatus("1", "localhost", container, "3", "frank", "I love beans!", null),
+               new StoredTweetStatus("2", "localhost", container, "3", "frank", "I love beans!", null)));
+      assertNull(secondPage.getNextMarker());
+   }
+
+   public void testContinuationTokenRoundTrip() {
+      Map<String, String> markers = ImmutableMap.of("aws-s3", "1234", "azureblob", "a marker&with=odd/chars");
+      String token = AddTweetsController.toContinuationToken(markers);
+      assertEquals(token.replaceAll("[A-Za-z0-9_-]", ""), "");
+      assertEquals(AddTweetsController.fromContinuationToken(token), markers);
+   }
+
+   HttpServletRequest conditionalRequest(String ifNoneMatch, long ifModifiedSince) {
+      HttpServletRequest request = createMock(HttpServletRequest.class);
+      expect(request.getHeader(HttpHeaders.IF_NONE_MATCH)).andReturn(ifNoneMatch).anyTimes();
+      expect(request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE)).andReturn(ifModifiedSince).anyTimes();
+      replay(request);
+      return request;
+   }
+
+   public void testIsNotModifiedMatchesETags() {
+      assertTrue(AddTweetsController.isNotModified(conditionalRequest("W/\"abc\"", -1), "abc", 0));
+      assertTrue(AddTweetsController.isNotModified(conditionalRequest("\"xyz\", \"abc\"", -1), "abc", 0));
+      assertTrue(AddTweetsController.isNotModified(conditionalRequest("*", -1), "abc", 0));
+      assertFalse(AddTweetsController.isNotModified(conditionalRequest("W/\"xyz\"", -1), "abc", 0));
+      // If-None-Match takes precedence
+      assertFalse(AddTweetsController.isNotModified(conditionalRequest("W/\"xyz\"", 5000), "abc", 1000));
+   }
+
+   public void testIsNotModifiedComparesSeconds() {
+      assertTrue(AddTweetsController.isNotModified(conditionalRequest(null, 5000), "abc", 5999));
+      assertFalse(AddTweetsController.isNotModified(conditionalRequest(null, 5000), "abc", 6000));
+      assertFalse(AddTweetsController.isNotModified(conditionalRequest(null, -1), "abc", 0));
+      // the modification time is not known
+      assertFalse(AddTweetsController.isNotModified(conditionalRequest(null, 5000), "abc", -1));
+   }
+
+   public void testIsCompleteOnlyIfAllTweetsWereRetrieved() {
+      StoredTweetStatus tweet = new StoredTweetStatus("1", "localhost", "container", "9", "frank", "I love beans!",
+               null);
+      assertTrue(AddTweetsController.isComplete(ImmutableList.of(tweet)));
+      assertFalse(AddTweetsController.isComplete(ImmutableList.of(tweet, new StoredTweetStatus("1", "localhost",
+               "container", "10", "frank", "", "timed out"))));
+      assertFalse(AddTweetsController.isComplete(ImmutableList.of(tweet, new StoredTweetStatus("2", "localhost",
+               "container", null, null, null, "timed out"))));
+      // retrieved while rendering
+      assertFalse(AddTweetsController.isComplete(Iterables.concat(ImmutableList.of(tweet))));
+   }
+
+   public void testNewestComparesIdsAsNumbers() {
+      StoredTweetStatus error = new StoredTweetStatus("2", "localhost", "container", null, null, null, "timed out");
+      List<StoredTweetStatus> tweets = ImmutableList.of(
+               new StoredTweetStatus("1", "localhost", "container", "9", "frank", "I love beans!", null),
+               new StoredTweetStatus("1", "localhost", "container", "10", "frank", "I love rice!", null),
+               error,
+               new StoredTweetStatus("1", "localhost", "container", "100", "frank", "I love peas!", null),
+               new StoredTweetStatus("2", "localhost", "container", "10", "frank", "I love rice!", null));
+
+      List<StoredTweetStatus> newest = AddTweetsController.newest(tweets, 3);
+      assertEquals(newest, ImmutableList.of(error, tweets.get(3), tweets.get(4), tweets.get(1)));
+      assertEquals(newest.get(2).getService(), "2");
+   }
+
+   public void testNewestRetrievesFromEachContainer() throws InterruptedException, ExecutionException {
+      String container = AddTweetsControllerTest.class.getName() + "#newest";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      for (BlobStoreContext context : contexts.values()) {
+         Blob blob = context.getBlobStore().blobBuilder("10").build();
+         blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+         blob.setPayload("I love rice!");
+         context.getBlobStore().putBlob(container, blob);
+      }
+      ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container);
+      AddTweetsController controller = new AddTweetsController(contexts, function);
+
+      List<StoredTweetStatus> newest = controller.newest(ImmutableSet.of("1", "2"), 3);
+      assertEquals(newest.size(), 3);
+      assertEquals(newest.get(0), new StoredTweetStatus("2", "localhost", container, "10", "frank",
+               "I love rice!", null));
+      assertEquals(newest.get(1), new StoredTweetStatus("1", "localhost", container, "10", "frank",
+               "I love rice!", null));
+      assertEquals(newest.get(2).getId(), "1");
+   }
 }
@@ -0,0 +1,189 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.controller;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.reset;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.TransientApiMetadata;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints.Version;
+import org.jclouds.demo.tweetstore.cache.ContainerVersions;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
+import org.jclouds.demo.tweetstore.functions.ServiceToStoredTweetStatuses;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.testng.annotations.Test;
+import org.testng.collections.Maps;
+
+
+/**
+ * Tests behavior of {@code AsyncAddTweetsController}
+ * 
+ * @author Adrian Cole
+ */
+@Test(groups = "unit")
+public class AsyncAddTweetsControllerTest {
+
+   Map<String, BlobStoreContext> createServices(String container) throws InterruptedException,
+            ExecutionException {
+      Map<String, BlobStoreContext> services = Maps.newHashMap();
+      TransientApiMetadata transientApiMetadata = TransientApiMetadata.builder().build();
+      for (String name : new String[] { "1", "2" }) {
+         BlobStoreContext context = ContextBuilder.newBuilder(transientApiMetadata).build(BlobStoreContext.class);
+         context.getBlobStore().createContainerInLocation(null, container);
+         Blob blob = context.getBlobStore().blobBuilder("1").build();
+         blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+         blob.setPayload("I love beans!");
+         context.getBlobStore().putBlob(container, blob);
+         services.put(name, context);
+      }
+      return services;
+   }
+
+   /**
+    * A request that keeps its attributes, so that they survive being dispatched again.
+    */
+   HttpServletRequest requestWithContinuation(Continuation continuation) {
+      HttpServletRequest request = new HttpServletRequestWrapper(createNiceMock(HttpServletRequest.class)) {
+         private final Map<String, Object> attributes = Maps.newHashMap();
+
+         @Override
+         public Object getAttribute(String name) {
+            return attributes.get(name);
+         }
+
+         @Override
+         public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+         }
+      };
+      request.setAttribute(Continuation.ATTRIBUTE, continuation);
+      return request;
+   }
+
+   AsyncAddTweetsController createController(Map<String, BlobStoreContext> contexts, String container,
+            long snapshotMaxAge, Executor requestExecutor) {
+      return new AsyncAddTweetsController(contexts, new ServiceToStoredTweetStatuses(contexts, container),
+               sameThreadExecutor(), new ContainerVersions(), new ContainerCheckpoints(contexts, container,
+                        sameThreadExecutor()), snapshotMaxAge, 0, new Latencies(), requestExecutor);
+   }
+
+   public void testRetrievesTweetsBeforeResuming() throws InterruptedException, ExecutionException,
+            TimeoutException {
+      String container = AsyncAddTweetsControllerTest.class.getName() + "#container";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      AsyncAddTweetsController controller = createController(contexts, container, 0, sameThreadExecutor());
+
+      Continuation continuation = createMock(Continuation.class);
+      expect(continuation.isResumed()).andReturn(false);
+      continuation.setTimeout(0);
+      continuation.suspend();
+      continuation.resume();
+      replay(continuation);
+      HttpServletRequest request = requestWithContinuation(continuation);
+
+      // the checkpoints are read by the request executor too
+      assertNull(controller.currentVersion(request, null, 0, false));
+      verify(continuation);
+      // not retrieved again while rendering
+      assertTrue(request.getAttribute("tweets") instanceof List);
+      assertEquals(((List<?>) request.getAttribute("tweets")).size(), 2);
+
+      reset(continuation);
+      expect(continuation.isResumed()).andReturn(true).anyTimes();
+      replay(continuation);
+      Version currentVersion = controller.currentVersion(request, null, 0, false);
+      assertTrue(currentVersion.isKnown());
+      assertEquals(controller.addTweetsToRequest(request, null, 0, false, currentVersion), currentVersion);
+   }
+
+   @Test(expectedExceptions = ExecutionException.class)
+   public void testResumesIfTheRetrievalIsRejected() throws InterruptedException, ExecutionException,
+            TimeoutException {
+      String container = AsyncAddTweetsControllerTest.class.getName() + "#container";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      ExecutorService requestExecutor = Executors.newSingleThreadExecutor();
+      requestExecutor.shutdown();
+      AsyncAddTweetsController controller = createController(contexts, container, 0, requestExecutor);
+
+      Continuation continuation = createMock(Continuation.class);
+      expect(continuation.isResumed()).andReturn(false);
+      continuation.setTimeout(0);
+      continuation.suspend();
+      continuation.resume();
+      replay(continuation);
+      HttpServletRequest request = requestWithContinuation(continuation);
+
+      assertNull(controller.currentVersion(request, null, 0, false));
+      verify(continuation);
+
+      reset(continuation);
+      expect(continuation.isResumed()).andReturn(true).anyTimes();
+      replay(continuation);
+      assertEquals(controller.currentVersion(request, null, 0, false), Version.UNKNOWN);
+      controller.addTweetsToRequest(request, null, 0, false, Version.UNKNOWN);
+   }
+
+   public void testServesSnapshotInMemoryWithoutSuspending() throws InterruptedException, ExecutionException,
+            TimeoutException {
+      String container = AsyncAddTweetsControllerTest.class.getName() + "#snapshot";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      AsyncAddTweetsController controller = createController(contexts, container, 60000, sameThreadExecutor());
+
+      // the first request waits for the snapshot to be loaded
+      Continuation continuation = createNiceMock(Continuation.class);
+      replay(continuation);
+      HttpServletRequest request = requestWithContinuation(continuation);
+      assertNull(controller.currentVersion(request, null, 0, false));
+
+      // the others are not suspended
+      continuation = createMock(Continuation.class);
+      expect(continuation.isResumed()).andReturn(false).anyTimes();
+      replay(continuation);
+      request = requestWithContinuation(continuation);
+      Version currentVersion = controller.currentVersion(request, null, 0, false);
+      assertTrue(currentVersion.isKnown());
+      assertEquals(controller.addTweetsToRequest(request, null, 0, false, currentVersion), currentVersion);
+      assertEquals(((List<?>) request.getAttribute("tweets")).size(), 2);
+      verify(continuation);
+   }
+}
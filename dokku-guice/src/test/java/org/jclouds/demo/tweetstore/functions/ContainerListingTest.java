@@ -0,0 +1,125 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.functions;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.TransientApiMetadata;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.demo.tweetstore.concurrent.Deadline;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Tests behavior of {@code ContainerListing}
+ *
+ * @author Adrian Cole
+ */
+@Test(groups = "unit")
+public class ContainerListingTest {
+   private static final Function<StorageMetadata, String> NAME = new Function<StorageMetadata, String>() {
+      @Override
+      public String apply(StorageMetadata input) {
+         return input.getName();
+      }
+   };
+
+   BlobStore createStore(String container, List<String> names) {
+      BlobStore store = ContextBuilder.newBuilder(TransientApiMetadata.builder().build())
+               .build(BlobStoreContext.class).getBlobStore();
+      store.createContainerInLocation(null, container);
+      for (String name : names) {
+         store.putBlob(container, store.blobBuilder(name).payload("tweet " + name).build());
+      }
+      return store;
+   }
+
+   public void testListsAllPages() {
+      String container = ContainerListingTest.class.getName() + "#pages";
+      List<String> names = ImmutableList.of("1", "2", "3", "4", "5");
+      ContainerListing listing = new ContainerListing(createStore(container, names), container,
+               sameThreadExecutor(), Deadline.none(), 2);
+
+      assertEquals(ImmutableList.copyOf(Iterables.transform(listing, NAME)), names);
+      assertNull(listing.getFailure());
+   }
+
+   public void testListsAheadOnExecutor() {
+      String container = ContainerListingTest.class.getName() + "#executor";
+      List<String> names = Lists.newArrayList();
+      for (int i = 0; i < 25; i++) {
+         names.add(String.format("%02d", i));
+      }
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+      try {
+         ContainerListing listing = new ContainerListing(createStore(container, names), container, executor,
+                  Deadline.none(), 10);
+         assertEquals(ImmutableList.copyOf(Iterables.transform(listing, NAME)), names);
+         assertNull(listing.getFailure());
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   public void testSkipsCheckpoint() {
+      String container = ContainerListingTest.class.getName() + "#checkpoint";
+      ContainerListing listing = new ContainerListing(createStore(container, ImmutableList.of("1",
+               TweetStoreConstants.CHECKPOINT_NAME, "2")), container, sameThreadExecutor(), Deadline.none(), 1);
+
+      assertEquals(ImmutableList.copyOf(Iterables.transform(listing, NAME)), ImmutableList.of("1", "2"));
+      assertNull(listing.getFailure());
+   }
+
+   public void testSkipsSegments() {
+      String container = ContainerListingTest.class.getName() + "#segments";
+      ContainerListing listing = new ContainerListing(createStore(container, ImmutableList.of("1",
+               TweetStoreConstants.SEGMENT_PREFIX + "2013010100-1-0a1b2c3d")), container,
+               sameThreadExecutor(), Deadline.none(), 1);
+
+      assertEquals(ImmutableList.copyOf(Iterables.transform(listing, NAME)), ImmutableList.of("1"));
+      assertNull(listing.getFailure());
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testDropsPagesOnceRead() {
+      String container = ContainerListingTest.class.getName() + "#once";
+      List<String> names = ImmutableList.of("1", "2", "3");
+      ContainerListing listing = new ContainerListing(createStore(container, names), container,
+               sameThreadExecutor(), Deadline.none(), 2);
+
+      assertEquals(ImmutableList.copyOf(Iterables.transform(listing, NAME)), names);
+      // the pages have not been kept
+      listing.iterator().next();
+   }
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.functions;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+/**
+ * Builds the words of a preset dictionary of {@link TweetCodec} from a corpus of tweets, one per
+ * line. The {@link TweetCodec#TWEETS_DICTIONARY} words are built from {@code tweets1-corpus.txt},
+ * next to this class on the test classpath; {@code TweetCodecTest} checks that they still are.
+ * <p/>
+ * The candidates are the words of the tweets and the pairs of adjacent words, with links reduced
+ * to their scheme and host and mentions to their {@code @}; a pair never spans punctuation or the
+ * rest of a link or mention. Each candidate seen at least twice is
+ * scored by the bytes it covers in the corpus, and the best ones are taken until the dictionary is
+ * full, skipping those contained in a candidate taken already. The words are listed from the
+ * lowest score to the highest, as deflate finds matches closer to the end of the dictionary with
+ * shorter codes.
+ * <p/>
+ * {@code tweets1-corpus.txt} is a small corpus written by hand in the style of the tweets the demo
+ * stores, so the dictionary built from it is a placeholder: {@code TweetCodecTest} only measures
+ * its gain over plain deflate on that corpus. A dictionary meant to compress real tweets should be
+ * built from a sample of the tweets stored.
+ * <p/>
+ * Run with the file to write the words to paste into {@link TweetCodec} to, and optionally the
+ * corpus file, as its arguments. A changed dictionary needs a new id, as the blobs compressed with
+ * the old one must stay readable.
+ */
+public class TweetDictionaryBuilder {
+
+   static final String TWEETS_CORPUS = "tweets1-corpus.txt";
+
+   /**
+    * Maximum size, in bytes, of a dictionary built, including the spaces around the words.
+    */
+   static final int MAX_DICTIONARY_BYTES = 1024;
+
+   private static final CharMatcher PUNCTUATION = CharMatcher.anyOf(".,;:!?()\"'");
+
+   public static void main(String[] args) throws IOException {
+      checkArgument(args.length > 0, "usage: %s <output file> [corpus file]",
+               TweetDictionaryBuilder.class.getName());
+      List<String> tweets = (args.length > 1) ? Files.readLines(new File(args[1]), Charsets.UTF_8)
+               : Resources.readLines(Resources.getResource(TWEETS_CORPUS), Charsets.UTF_8);
+      List<String> quoted = Lists.newArrayList();
+      for (String word : build(tweets)) {
+         quoted.add('"' + word + '"');
+      }
+      Files.write(Joiner.on(", ").join(quoted), new File(args[0]), Charsets.UTF_8);
+   }
+
+   /**
+    * @return the words of the dictionary, in the order they are joined in
+    */
+   static List<String> build(Iterable<String> tweets) {
+      final Multiset<String> candidates = HashMultiset.create();
+      for (String tweet : tweets) {
+         String previous = null;
+         for (String token : Splitter.on(' ').omitEmptyStrings().split(tweet)) {
+            String word = normalize(token);
+            if (word.isEmpty()) {
+               previous = null;
+               continue;
+            }
+            candidates.add(word);
+            if (previous != null) {
+               candidates.add(previous + " " + word);
+            }
+            // the text after a mention, a link or punctuation does not follow the word
+            previous = word.equals(token) ? word : null;
+         }
+      }
+
+      List<String> ranked = Lists.newArrayList();
+      for (String candidate : candidates.elementSet()) {
+         if (candidates.count(candidate) > 1) {
+            ranked.add(candidate);
+         }
+      }
+      Comparator<String> byScore = new Comparator<String>() {
+         @Override
+         public int compare(String left, String right) {
+            int result = Long.compare(score(candidates, right), score(candidates, left));
+            return (result != 0) ? result : left.compareTo(right);
+         }
+      };
+      Collections.sort(ranked, byScore);
+
+      List<String> words = Lists.newArrayList();
+      // the leading space
+      int size = 1;
+      for (String candidate : ranked) {
+         int candidateSize = candidate.getBytes(Charsets.UTF_8).length + 1;
+         if (size + candidateSize > MAX_DICTIONARY_BYTES) {
+            break;
+         }
+         if (!containedInAny(candidate, words)) {
+            words.add(candidate);
+            size += candidateSize;
+         }
+      }
+      return Lists.reverse(words);
+   }
+
+   private static String normalize(String token) {
+      int scheme = token.indexOf("://");
+      if (scheme > 0) {
+         int path = token.indexOf('/', scheme + 3);
+         return (path > 0) ? token.substring(0, path + 1) : token;
+      }
+      if (token.startsWith("@")) {
+         return "@";
+      }
+      return PUNCTUATION.trimFrom(token);
+   }
+
+   private static long score(Multiset<String> candidates, String candidate) {
+      return (long) candidates.count(candidate) * candidate.getBytes(Charsets.UTF_8).length;
+   }
+
+   private static boolean containedInAny(String candidate, List<String> words) {
+      for (String word : words) {
+         if (word.contains(candidate)) {
+            return true;
+         }
+      }
+      return false;
+   }
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.functions;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.TransientApiMetadata;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests behavior of {@code TweetSegments}
+ */
+@Test(groups = "unit")
+public class TweetSegmentsTest {
+
+   TweetSegments createSegments(String container) {
+      BlobStore store = ContextBuilder.newBuilder(TransientApiMetadata.builder().build())
+               .build(BlobStoreContext.class).getBlobStore();
+      store.createContainerInLocation(null, container);
+      return new TweetSegments(store, container);
+   }
+
+   public void testSegmentOfHour() {
+      long hour = TimeUnit.HOURS.toMillis(1);
+      assertEquals(TweetSegments.segmentOf(new Date(0)), TweetStoreConstants.SEGMENT_PREFIX + "1970010100");
+      assertEquals(TweetSegments.segmentOf(new Date(hour - 1)), TweetStoreConstants.SEGMENT_PREFIX + "1970010100");
+      assertEquals(TweetSegments.segmentOf(new Date(hour)), TweetStoreConstants.SEGMENT_PREFIX + "1970010101");
+   }
+
+   public void testIsPart() {
+      assertTrue(TweetSegments.isPart(TweetStoreConstants.SEGMENT_PREFIX + "1970010100-2-0a1b2c3d"));
+      assertFalse(TweetSegments.isPart(TweetStoreConstants.SEGMENT_PREFIX + "1970010100"));
+      assertFalse(TweetSegments.isPart("1"));
+      assertFalse(TweetSegments.isPart(TweetStoreConstants.CHECKPOINT_NAME));
+   }
+
+   public void testEmpty() throws IOException {
+      TweetSegments segments = createSegments(TweetSegmentsTest.class.getName() + "#empty");
+      assertTrue(segments.index().isEmpty());
+      assertTrue(segments.read(TweetStoreConstants.SEGMENT_PREFIX + "1970010100").isEmpty());
+   }
+
+   public void testAddWritesPartSortedById() throws IOException {
+      TweetSegments segments = createSegments(TweetSegmentsTest.class.getName() + "#add");
+      String segment = TweetStoreConstants.SEGMENT_PREFIX + "1970010100";
+      String part = segments.add(segment, ImmutableList.of(new TweetSegments.Tweet(2, "jimmy", "cloud is king"),
+               new TweetSegments.Tweet(1, "frank", "I love beans!"), new TweetSegments.Tweet(3, null, "line\nbreak")));
+      assertTrue(part.startsWith(segment + "-3-"), part);
+
+      List<TweetSegments.Tweet> tweets = segments.read(part);
+      assertEquals(tweets.size(), 3);
+      assertEquals(tweets.get(0).getId(), 1);
+      assertEquals(tweets.get(0).getFrom(), "frank");
+      assertEquals(tweets.get(0).getText(), "I love beans!");
+      assertEquals(tweets.get(1).getId(), 2);
+      assertNull(tweets.get(2).getFrom());
+      assertEquals(tweets.get(2).getText(), "line\nbreak");
+   }
+
+   public void testAddNeverRewritesAPart() throws IOException {
+      TweetSegments segments = createSegments(TweetSegmentsTest.class.getName() + "#immutable");
+      String segment = TweetStoreConstants.SEGMENT_PREFIX + "1970010100";
+      String first = segments.add(segment, ImmutableList.of(new TweetSegments.Tweet(1, "frank", "I love beans!")));
+      String second = segments.add(segment, ImmutableList.of(new TweetSegments.Tweet(2, "jimmy", "cloud is king"),
+               new TweetSegments.Tweet(3, "jimmy", "cloud is still king")));
+      // the same tweets go to the same part
+      assertEquals(segments.add(segment, ImmutableList.of(new TweetSegments.Tweet(1, "frank", "I love beans!"))),
+               first);
+
+      assertEquals(segments.read(first).size(), 1);
+      assertEquals(segments.read(second).size(), 2);
+   }
+
+   public void testIndexListsAllParts() throws IOException {
+      TweetSegments segments = createSegments(TweetSegmentsTest.class.getName() + "#index");
+      String second = segments.add(TweetStoreConstants.SEGMENT_PREFIX + "1970010101", ImmutableList.of(
+               new TweetSegments.Tweet(2, "jimmy", "cloud is king"), new TweetSegments.Tweet(3, "jimmy", "again")));
+      String first = segments.add(TweetStoreConstants.SEGMENT_PREFIX + "1970010100", ImmutableList.of(
+               new TweetSegments.Tweet(1, "frank", "I love beans!")));
+
+      assertEquals(ImmutableList.copyOf(segments.index().entrySet()), ImmutableList.of(
+               Maps.immutableEntry(first, 1), Maps.immutableEntry(second, 2)));
+   }
+}
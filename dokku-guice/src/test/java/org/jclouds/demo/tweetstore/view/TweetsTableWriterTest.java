@@ -0,0 +1,65 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.view;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests behavior of {@code TweetsTableWriter}
+ *
+ * @author Adrian Cole
+ */
+@Test(groups = "unit")
+public class TweetsTableWriterTest {
+
+   public void testWritesRowsInOrder() throws IOException {
+      StringWriter out = new StringWriter();
+      new TweetsTableWriter(out).write(ImmutableList.of(
+               new StoredTweetStatus("1", "localhost", "container", "2", "frank", "I love beans!", "1ms"),
+               new StoredTweetStatus("2", "localhost", "container", "1", "frank", "I love beans!", "2ms")));
+      String html = out.toString();
+      assertTrue(html.contains("<tr class=\"odd\"><td>2</td><td>frank</td><td>I love beans!</td>"
+               + "<td>1</td><td>localhost</td><td>1ms</td></tr>\n<tr class=\"even\"><td>1</td>"), html);
+      assertTrue(html.endsWith("</tbody>\n</table>\n"), html);
+   }
+
+   public void testEscapesTweets() throws IOException {
+      StringWriter out = new StringWriter();
+      new TweetsTableWriter(out).write(ImmutableList.of(new StoredTweetStatus("1", "localhost",
+               "container", "1", "<b>frank</b>", "beans & \"rice\"", null)));
+      assertTrue(out.toString().contains("<td>&lt;b&gt;frank&lt;/b&gt;</td><td>beans &amp; &quot;rice&quot;</td>"),
+               out.toString());
+   }
+
+   public void testWritesEmptyTable() throws IOException {
+      StringWriter out = new StringWriter();
+      new TweetsTableWriter(out).write(ImmutableList.<StoredTweetStatus> of());
+      assertEquals(out.toString().split("<tr").length, 3, out.toString());
+      assertTrue(out.toString().contains("Nothing found to display."), out.toString());
+   }
+}
@@ -0,0 +1,230 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Singleton;
+import javax.ws.rs.core.MediaType;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+/**
+ * Remembers the ids of the tweets stored in the tweet container of each blobstore, so that tweets
+ * that are already stored are not uploaded again. The ids are kept in a Bloom filter, which is
+ * saved in the container next to the tweets. It is read back the first time a blobstore is used,
+ * or rebuilt from the listing of the container if it has not been saved yet.
+ * <p/>
+ * Once more tweets have been stored than the filter was sized for, it is rebuilt from the listing
+ * for twice as many tweets as are stored, as more and more of the new tweets would otherwise have
+ * to be looked up. The size and the number of tweets are saved along with the filter.
+ */
+@Singleton
+public class StoredTweetIds {
+
+   /**
+    * The ids of the tweets stored in the container of a single blobstore. A tweet that
+    * {@link #mightContain might be stored} has to be looked up to be sure; one that might not
+    * certainly is not.
+    */
+   public static class Ids {
+      // guarded by this
+      private final BloomFilter<Long> filter;
+      private final int capacity;
+      private int insertions;
+      private boolean changed;
+
+      private Ids(int capacity) {
+         this(BloomFilter.create(Funnels.longFunnel(), capacity, FALSE_POSITIVE_PROBABILITY), capacity, 0);
+      }
+
+      private Ids(BloomFilter<Long> filter, int capacity, int insertions) {
+         this.filter = filter;
+         this.capacity = capacity;
+         this.insertions = insertions;
+      }
+
+      public synchronized boolean mightContain(long id) {
+         return filter.mightContain(id);
+      }
+
+      public synchronized void put(long id) {
+         changed |= filter.put(id);
+         insertions++;
+      }
+
+      private synchronized boolean isFull() {
+         return insertions > capacity;
+      }
+
+      /**
+       * @return the blob to save the filter in, or null if it has not changed since it was last
+       *         saved
+       */
+      private synchronized Blob changes(BlobStore store) throws IOException {
+         if (!changed) {
+            return null;
+         }
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         filter.writeTo(out);
+         Blob blob = store.blobBuilder(TweetStoreConstants.TWEET_IDS_NAME).build();
+         blob.setPayload(out.toByteArray());
+         blob.getPayload().getContentMetadata().setContentType(MediaType.APPLICATION_OCTET_STREAM);
+         blob.getMetadata().getUserMetadata().put(CAPACITY, String.valueOf(capacity));
+         blob.getMetadata().getUserMetadata().put(INSERTIONS, String.valueOf(insertions));
+         changed = false;
+         return blob;
+      }
+
+      private synchronized void unsaved() {
+         changed = true;
+      }
+   }
+
+   /**
+    * Number of tweets a blobstore can hold before more than 1 in 100 of the tweets that are not
+    * stored yet have to be looked up.
+    */
+   static final int EXPECTED_TWEETS = 10000;
+   private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+   // user metadata of the saved filter
+   private static final String CAPACITY = "capacity";
+   private static final String INSERTIONS = "insertions";
+
+   private final ConcurrentMap<String, Ids> byContext = Maps.newConcurrentMap();
+
+   /**
+    * @return empty ids that are neither kept nor saved, for a blobstore whose ids cannot be read
+    */
+   public static Ids none() {
+      return new Ids(EXPECTED_TWEETS);
+   }
+
+   /**
+    * @return the ids of the tweets stored in the container of the given blobstore, read from the
+    *         blobstore the first time, and rebuilt from its listing once they are full
+    */
+   public Ids get(String contextName, BlobStore store, String container) throws IOException {
+      Ids stored = byContext.get(contextName);
+      if (stored == null) {
+         Ids read = read(store, container);
+         stored = byContext.putIfAbsent(contextName, read);
+         if (stored == null) {
+            stored = read;
+         }
+      } else if (stored.isFull()) {
+         // tweets stored meanwhile in the full ids are only missed if they are not listed yet, and
+         // are then looked up again
+         Ids rebuilt = rebuild(store, container);
+         if (byContext.replace(contextName, stored, rebuilt)) {
+            stored = rebuilt;
+         }
+      }
+      return stored;
+   }
+
+   /**
+    * Saves the ids of the tweets stored in the container of the given blobstore, if they have
+    * changed since they were last saved.
+    */
+   public void save(String contextName, BlobStore store, String container) throws IOException {
+      Ids stored = byContext.get(contextName);
+      Blob blob = (stored != null) ? stored.changes(store) : null;
+      if (blob == null) {
+         return;
+      }
+      try {
+         store.putBlob(container, blob);
+      } catch (RuntimeException e) {
+         // try again next time
+         stored.unsaved();
+         throw e;
+      }
+   }
+
+   /**
+    * Forgets the ids of the given blobstore, after its container has been cleared.
+    */
+   public void invalidate(String contextName) {
+      byContext.remove(contextName);
+   }
+
+   private static Ids read(BlobStore store, String container) throws IOException {
+      Blob saved = store.getBlob(container, TweetStoreConstants.TWEET_IDS_NAME);
+      // filters saved without their size are rebuilt as well, as they may be full
+      Integer capacity = (saved != null) ? tryParse(saved.getMetadata().getUserMetadata().get(CAPACITY)) : null;
+      Integer insertions = (saved != null) ? tryParse(saved.getMetadata().getUserMetadata().get(INSERTIONS)) : null;
+      if (capacity != null && insertions != null) {
+         InputStream in = saved.getPayload().openStream();
+         try {
+            return new Ids(BloomFilter.readFrom(in, Funnels.longFunnel()), capacity, insertions);
+         } catch (IOException e) {
+            // rebuilt from the listing instead
+         } finally {
+            in.close();
+         }
+      }
+      return rebuild(store, container);
+   }
+
+   private static Integer tryParse(String value) {
+      return (value != null) ? Ints.tryParse(value) : null;
+   }
+
+   private static Ids rebuild(BlobStore store, String container) {
+      List<Long> listed = Lists.newArrayList();
+      String marker = null;
+      do {
+         ListContainerOptions options = new ListContainerOptions();
+         if (marker != null) {
+            options.afterMarker(marker);
+         }
+         PageSet<? extends StorageMetadata> page = store.list(container, options);
+         for (StorageMetadata blob : page) {
+            // not the checkpoint or the saved ids
+            Long id = Longs.tryParse(blob.getName());
+            if (id != null) {
+               listed.add(id);
+            }
+         }
+         marker = page.getNextMarker();
+      } while (marker != null);
+      Ids rebuilt = new Ids(Math.max(EXPECTED_TWEETS, 2 * listed.size()));
+      for (Long id : listed) {
+         rebuilt.put(id);
+      }
+      return rebuilt;
+   }
+}
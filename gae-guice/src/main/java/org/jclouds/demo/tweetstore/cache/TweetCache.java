@@ -0,0 +1,138 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * In-memory cache of tweets read from the blobstores. Stored tweets are never modified, so an
+ * entry keyed by the blob's ETag never goes stale; the least recently used entries are evicted
+ * once the cached tweets exceed the configured size.
+ */
+@Singleton
+public class TweetCache {
+
+   /**
+    * The sender and text of a cached tweet.
+    */
+   public static class Tweet {
+      private final String from;
+      private final String text;
+
+      public Tweet(String from, String text) {
+         this.from = from;
+         this.text = checkNotNull(text, "text");
+      }
+
+      public String getFrom() {
+         return from;
+      }
+
+      public String getText() {
+         return text;
+      }
+   }
+
+   private static class Key {
+      private final String service;
+      private final String container;
+      private final String name;
+      private final String eTag;
+
+      private Key(String service, String container, String name, String eTag) {
+         this.service = service;
+         this.container = container;
+         this.name = name;
+         this.eTag = eTag;
+      }
+
+      @Override
+      public int hashCode() {
+         return Objects.hashCode(service, container, name, eTag);
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj)
+            return true;
+         if (!(obj instanceof Key))
+            return false;
+         Key other = (Key) obj;
+         return Objects.equal(service, other.service) && Objects.equal(container, other.container)
+                  && Objects.equal(name, other.name) && Objects.equal(eTag, other.eTag);
+      }
+   }
+
+   private static final Weigher<Key, Tweet> APPROXIMATE_SIZE_IN_BYTES = new Weigher<Key, Tweet>() {
+      @Override
+      public int weigh(Key key, Tweet tweet) {
+         // strings are stored as UTF-16
+         return 2 * (length(key.service) + length(key.container) + length(key.name) + length(key.eTag)
+                  + length(tweet.from) + length(tweet.text));
+      }
+   };
+
+   private static int length(String string) {
+      return string == null ? 0 : string.length();
+   }
+
+   private final Cache<Key, Tweet> cache;
+
+   @Inject
+   public TweetCache(@Named(TweetStoreConstants.PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES) long maxBytes) {
+      checkArgument(maxBytes >= 0, "%s must not be negative but was %s",
+            TweetStoreConstants.PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES, maxBytes);
+      cache = CacheBuilder.newBuilder().maximumWeight(maxBytes).weigher(APPROXIMATE_SIZE_IN_BYTES)
+            .recordStats().build();
+   }
+
+   /**
+    * @return the cached tweet, or null if it is not cached or the blobstore did not supply an
+    *         ETag to identify this version of the blob
+    */
+   public Tweet getIfPresent(String service, String container, String name, String eTag) {
+      return eTag == null ? null : cache.getIfPresent(new Key(service, container, name, eTag));
+   }
+
+   public void put(String service, String container, String name, String eTag, Tweet tweet) {
+      if (eTag != null) {
+         cache.put(new Key(service, container, name, eTag), tweet);
+      }
+   }
+
+   /**
+    * @return hit and miss counts of the cache
+    */
+   public CacheStats stats() {
+      return cache.stats();
+   }
+}
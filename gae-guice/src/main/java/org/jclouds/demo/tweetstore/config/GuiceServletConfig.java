@@ -23,9 +23,17 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Predicates.in;
 import static com.google.common.collect.ImmutableSet.copyOf;
 import static com.google.common.collect.Sets.filter;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
 import static org.jclouds.Constants.PROPERTY_STRIP_EXPECT_HEADER;
 import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_BLOBSTORES;
 import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_DICTIONARY;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_PUTS_PER_PROVIDER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_REQUEST_TIMEOUT;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_SEGMENTS;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_ACCESSTOKEN;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_ACCESSTOKEN_SECRET;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_CONSUMER_KEY;
@@ -46,6 +54,7 @@ import org.jclouds.demo.tweetstore.controller.AddTweetsController;
 import org.jclouds.demo.tweetstore.controller.ClearTweetsController;
 import org.jclouds.demo.tweetstore.controller.EnqueueStoresController;
 import org.jclouds.demo.tweetstore.controller.StoreTweetsController;
+import org.jclouds.demo.tweetstore.controller.TweetsJsonController;
 import org.jclouds.gae.config.GoogleAppEngineConfigurationModule;
 
 import twitter4j.Twitter;
@@ -58,6 +67,7 @@ import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.repackaged.com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Module;
@@ -78,6 +88,11 @@ public class GuiceServletConfig extends GuiceServletContextListener {
    private Twitter twitterClient;
    private String container;
    private Queue queue;
+   private long tweetCacheBytes;
+   private long snapshotMaxAge;
+   private long requestTimeout;
+   private boolean segments;
+   private String dictionary;
 
    @Override
    public void contextInitialized(ServletContextEvent servletContextEvent) {
@@ -111,6 +126,12 @@ public class GuiceServletConfig extends GuiceServletContextListener {
                   .modules(modules).overrides(props).build(BlobStoreContext.class));
       }
 
+      tweetCacheBytes = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES, "8388608"));
+      snapshotMaxAge = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE, "30000"));
+      requestTimeout = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_REQUEST_TIMEOUT, "10000"));
+      segments = Boolean.parseBoolean(props.getProperty(PROPERTY_TWEETSTORE_SEGMENTS, "false"));
+      dictionary = props.getProperty(PROPERTY_TWEETSTORE_DICTIONARY, "");
+
       // get a queue for submitting store tweet requests
       queue = QueueFactory.getQueue("twitter");
 
@@ -136,9 +157,24 @@ public class GuiceServletConfig extends GuiceServletContextListener {
             }).toInstance(providerTypeToBlobStoreMap);
             bind(Twitter.class).toInstance(twitterClient);
             bind(Queue.class).toInstance(queue);
+            // App Engine front-end requests cannot start threads that outlive them
+            bind(ListeningExecutorService.class).toInstance(sameThreadExecutor());
             bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_CONTAINER)).to(container);
+            // the tweets are fetched one at a time on the request thread anyway
+            bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER)).to(1);
+            // and stored one at a time as well
+            bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_PUTS_PER_PROVIDER)).to(1);
+            bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_SEGMENTS)).to(segments);
+            bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_DICTIONARY)).to(dictionary);
+            bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES)).to(tweetCacheBytes);
+            // stale tweets are refreshed on the request thread
+            bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE)).to(snapshotMaxAge);
+            // only checked between calls to the blobstores, since they are made on the request thread
+            bindConstant().annotatedWith(Names.named(PROPERTY_TWEETSTORE_REQUEST_TIMEOUT)).to(requestTimeout);
+            // no GzipFilter, as App Engine compresses responses itself
             serve("/store/*").with(StoreTweetsController.class);
             serve("/tweets/*").with(AddTweetsController.class);
+            serve("/tweets.json").with(TweetsJsonController.class);
             serve("/stores/*").with(EnqueueStoresController.class);
             serve("/clear/*").with(ClearTweetsController.class);
          }
@@ -0,0 +1,202 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.functions;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
+import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Retrieves a tweet held by several blobstores from the one that has answered fastest recently.
+ * If it has not answered within its 95th percentile latency, the tweet is requested from the next
+ * fastest blobstore as well, and whichever answers first is used, which cuts the tail latency of
+ * the slowest reads at the cost of a few more requests. A blobstore that fails is replaced by the
+ * next one.
+ * <p/>
+ * The requests are run on the given executor, and the caller waits for whichever answers first.
+ * Requests that the executor rejects, or that are still waiting for a thread when their result is
+ * needed, are run by the caller instead, so that callers that are themselves running on the
+ * executor never wait for a thread of their own. The request to the next fastest blobstore is
+ * needed as soon as it is sent, so the caller runs it unless a thread takes it up within
+ * {@link #HEDGE_START_MILLIS}.
+ */
+class HedgedRetrieval implements Function<Map<String, StorageMetadata>, StoredTweetStatus> {
+   static final double HEDGE_PERCENTILE = 0.95;
+   /**
+    * How long the request to the next fastest blobstore waits for a thread before the caller runs
+    * it. A free thread takes it up well within that.
+    */
+   static final long HEDGE_START_MILLIS = 5;
+
+   private final List<String> services;
+   private final Map<String, MetadataToStoredTweetStatus> toStatus;
+   private final Latencies latencies;
+   private final Executor executor;
+
+   /**
+    * @param services
+    *           all the blobstores, in the order in which blobstores without recent requests are
+    *           asked
+    */
+   HedgedRetrieval(List<String> services, Map<String, MetadataToStoredTweetStatus> toStatus, Latencies latencies,
+            Executor executor) {
+      this.services = services;
+      this.toStatus = toStatus;
+      this.latencies = latencies;
+      this.executor = executor;
+   }
+
+   /**
+    * @return the blobstores that hold the tweet, in the order they are asked
+    */
+   List<String> rank(Map<String, StorageMetadata> tweet) {
+      return latencies.fastestFirst(Iterables.filter(services, Predicates.in(tweet.keySet())));
+   }
+
+   /**
+    * @param tweet
+    *           the blob of the tweet in each blobstore that holds it
+    */
+   @Override
+   public StoredTweetStatus apply(Map<String, StorageMetadata> tweet) {
+      List<String> ranked = rank(tweet);
+      for (String service : ranked) {
+         StoredTweetStatus known = toStatus.get(service).withoutRetrieving(tweet.get(service));
+         if (known != null) {
+            return known;
+         }
+      }
+      BlockingQueue<ListenableFutureTask<StoredTweetStatus>> completed = new LinkedBlockingQueue<ListenableFutureTask<StoredTweetStatus>>();
+      // the blobstore each request is sent to
+      Map<ListenableFutureTask<StoredTweetStatus>, String> inFlight = Maps.newLinkedHashMap();
+      Iterator<String> next = ranked.iterator();
+      String first = next.next();
+      ListenableFutureTask<StoredTweetStatus> primary = read(first, tweet.get(first), completed,
+               new CountDownLatch(1));
+      inFlight.put(primary, first);
+      long hedgeAfter = latencies.percentile(first, HEDGE_PERCENTILE);
+      if (hedgeAfter >= 0 && next.hasNext()) {
+         try {
+            Uninterruptibles.getUninterruptibly(primary, hedgeAfter, TimeUnit.NANOSECONDS);
+         } catch (TimeoutException e) {
+            // no point in hedging a request that is still waiting for a thread
+            primary.run();
+            if (!primary.isDone()) {
+               String backup = next.next();
+               CountDownLatch started = new CountDownLatch(1);
+               ListenableFutureTask<StoredTweetStatus> hedge = read(backup, tweet.get(backup), completed, started);
+               inFlight.put(hedge, backup);
+               // nor in waiting for the hedge behind other requests; no-op once it has a thread
+               if (!Uninterruptibles.awaitUninterruptibly(started, HEDGE_START_MILLIS, TimeUnit.MILLISECONDS)) {
+                  hedge.run();
+               }
+            }
+         } catch (ExecutionException e) {
+            // replaced below
+         }
+      }
+      // no-op unless the request is still waiting for a thread
+      primary.run();
+      Throwable failure = null;
+      String failed = first;
+      while (!inFlight.isEmpty()) {
+         ListenableFutureTask<StoredTweetStatus> answered = Uninterruptibles.takeUninterruptibly(completed);
+         String service = inFlight.remove(answered);
+         try {
+            StoredTweetStatus row = Uninterruptibles.getUninterruptibly(answered);
+            for (ListenableFutureTask<StoredTweetStatus> slower : inFlight.keySet()) {
+               slower.cancel(false);
+            }
+            return row;
+         } catch (ExecutionException e) {
+            failure = e.getCause();
+            failed = service;
+            if (inFlight.isEmpty() && next.hasNext()) {
+               String replacement = next.next();
+               inFlight.put(read(replacement, tweet.get(replacement), completed, new CountDownLatch(1)),
+                        replacement);
+            }
+            // the remaining requests may be waiting for a thread that never becomes free
+            for (ListenableFutureTask<StoredTweetStatus> request : inFlight.keySet()) {
+               request.run();
+            }
+         }
+      }
+      return toStatus.get(failed).failed(tweet.get(failed), failure);
+   }
+
+   /**
+    * @return the row of a tweet that was not retrieved in time from the given blobstore
+    */
+   StoredTweetStatus timedOut(String service, Map<String, StorageMetadata> tweet) {
+      return toStatus.get(service).timedOut(tweet.get(service));
+   }
+
+   /**
+    * Sends the request to the executor, or runs it if the executor rejects it.
+    * 
+    * @param started
+    *           counted down once the request is run
+    */
+   private ListenableFutureTask<StoredTweetStatus> read(final String service, final StorageMetadata blobMetadata,
+            final BlockingQueue<ListenableFutureTask<StoredTweetStatus>> completed, final CountDownLatch started) {
+      final ListenableFutureTask<StoredTweetStatus> request = ListenableFutureTask.create(
+               new Callable<StoredTweetStatus>() {
+                  @Override
+                  public StoredTweetStatus call() throws Exception {
+                     started.countDown();
+                     return toStatus.get(service).read(blobMetadata);
+                  }
+               });
+      request.addListener(new Runnable() {
+         @Override
+         public void run() {
+            completed.add(request);
+         }
+      }, sameThreadExecutor());
+      try {
+         executor.execute(request);
+      } catch (RejectedExecutionException e) {
+         request.run();
+      }
+      return request;
+   }
+}
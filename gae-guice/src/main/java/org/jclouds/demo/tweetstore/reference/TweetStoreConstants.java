@@ -26,9 +26,79 @@ package org.jclouds.demo.tweetstore.reference;
 public interface TweetStoreConstants {
    static final String PROPERTY_TWEETSTORE_BLOBSTORES = "jclouds.tweetstore.blobstores";
    static final String PROPERTY_TWEETSTORE_CONTAINER = "jclouds.tweetstore.container";
+   /**
+    * Size of the thread pool used to query the blobstores in parallel.
+    */
+   static final String PROPERTY_TWEETSTORE_THREADS = "jclouds.tweetstore.threads";
+   /**
+    * Maximum number of tweets retrieved from a single blobstore at the same time.
+    */
+   static final String PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER = "jclouds.tweetstore.fetches-per-provider";
+   /**
+    * Maximum number of tweets stored in a single blobstore at the same time.
+    */
+   static final String PROPERTY_TWEETSTORE_PUTS_PER_PROVIDER = "jclouds.tweetstore.puts-per-provider";
+   /**
+    * Whether new tweets are packed into segments of many tweets each rather than stored one
+    * blob per tweet; see {@link org.jclouds.demo.tweetstore.functions.TweetSegments}. The tweets
+    * stored one per blob are always displayed, those in segments only if this is enabled, so that
+    * the segments are not looked for otherwise.
+    */
+   static final String PROPERTY_TWEETSTORE_SEGMENTS = "jclouds.tweetstore.segments";
+   /**
+    * Id of the preset dictionary with which new tweets are compressed, e.g.
+    * {@link org.jclouds.demo.tweetstore.functions.TweetCodec#TWEETS_DICTIONARY}; empty to store
+    * them uncompressed. Tweets stored either way are displayed.
+    */
+   static final String PROPERTY_TWEETSTORE_DICTIONARY = "jclouds.tweetstore.dictionary";
+   /**
+    * Approximate maximum size, in bytes, of the tweets cached in memory.
+    */
+   static final String PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES = "jclouds.tweetstore.tweet-cache-bytes";
+   /**
+    * Time, in milliseconds, after which the tweets displayed are refreshed in the background;
+    * 0 to retrieve the tweets for every request.
+    */
+   static final String PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE = "jclouds.tweetstore.snapshot-max-age";
+   /**
+    * Time, in milliseconds, a request waits for the blobstores before showing the ones that have
+    * not answered as timed out; 0 to wait for all of them.
+    */
+   static final String PROPERTY_TWEETSTORE_REQUEST_TIMEOUT = "jclouds.tweetstore.request-timeout";
    /**
     * Note that this has to conform to restrictions of all blobstores. for example, azure doesn't
     * support periods.
     */
    static final String SENDER_NAME = "sendername";
+   /**
+    * URL-encoded text of the tweet, kept in the user metadata so that tweets can be displayed
+    * from a detailed container listing without retrieving each blob. Absent if the payload is
+    * compressed, as the copy would take back the space saved.
+    */
+   static final String TWEET_TEXT = "tweettext";
+   /**
+    * Id of the dictionary the payload is compressed with; see
+    * {@link org.jclouds.demo.tweetstore.functions.TweetCodec}. Absent if it is not compressed.
+    */
+   static final String DICTIONARY_ID = "dictionaryid";
+   /**
+    * Longest encoded tweet text stored in the user metadata. Blobstores limit the total size of
+    * the user metadata, so longer tweets are only available from the payload.
+    */
+   static final int MAX_METADATA_TWEET_LENGTH = 1024;
+   /**
+    * Name of the blob, kept next to the tweets in the container, that holds the id of the newest
+    * tweet stored so far. Clearing the container removes it as well, so that all the tweets are
+    * stored again.
+    */
+   static final String CHECKPOINT_NAME = "checkpoint";
+   /**
+    * Name of the blob, kept next to the tweets in the container, that holds the ids of the tweets
+    * stored so far; see {@link org.jclouds.demo.tweetstore.cache.StoredTweetIds}.
+    */
+   static final String TWEET_IDS_NAME = "tweetids";
+   /**
+    * Start of the names of the blobs that hold segments of many tweets each.
+    */
+   static final String SEGMENT_PREFIX = "segment-";
 }
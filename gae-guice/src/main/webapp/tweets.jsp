@@ -18,8 +18,15 @@
     under the License.
 
 --%>
-<%@ page import="org.jclouds.JcloudsVersion" buffer="20kb"%>
-<%@ taglib uri="http://displaytag.sf.net" prefix="display"%>
+<%@ page contentType="text/html; charset=UTF-8"%>
+<%@ page import="org.jclouds.JcloudsVersion"%>
+<%@ page import="java.util.List"%>
+<%@ page import="java.util.Map"%>
+<%@ page import="com.google.common.html.HtmlEscapers"%>
+<%@ page import="org.jclouds.demo.tweetstore.domain.MergedTweetStatus"%>
+<%@ page import="org.jclouds.demo.tweetstore.domain.StoredTweetStatus"%>
+<%@ page import="org.jclouds.demo.tweetstore.view.MergedTweetsTableWriter"%>
+<%@ page import="org.jclouds.demo.tweetstore.view.TweetsTableWriter"%>
 <html>
 <head>
 <title>jclouds: anyweight cloudware for java</title>
@@ -89,17 +96,51 @@ overflow-y:auto;
 <tr>
   <td>
   <div class="TableContainer">
-  <display:table name="tweets" defaultsort="1" cellpadding="5" cellspacing="1" class="staticheader">
-    <display:column property="id" title="Tweet ID" />
-    <display:column property="from" title="Who Said it" />
-    <display:column property="tweet" title="Tweet" />
-    <display:column property="service" title="Cloud" />
-    <display:column property="host" title="Host" />
-    <display:column property="status" title="Status" />	
-  </display:table>
+  <%
+    // rows are written as the tweets are retrieved, instead of being collected and sorted first
+    @SuppressWarnings("unchecked")
+    List<String> services = (List<String>) request.getAttribute("services");
+    if (services != null) {
+      @SuppressWarnings("unchecked")
+      Iterable<MergedTweetStatus> tweets = (Iterable<MergedTweetStatus>) request.getAttribute("tweets");
+      new MergedTweetsTableWriter(out, services).write(tweets);
+    } else {
+      @SuppressWarnings("unchecked")
+      Iterable<StoredTweetStatus> tweets = (Iterable<StoredTweetStatus>) request.getAttribute("tweets");
+      new TweetsTableWriter(out).write(tweets);
+    }
+  %>
   </div>
   </td>
 </tr>
+<% if (request.getAttribute("nextMarker") != null) { %>
+<tr>
+  <td><a href="?limit=<%= request.getAttribute("limit") %>&amp;marker=<%= request.getAttribute("nextMarker") %>">Next page</a></td>
+</tr>
+<% } %>
+<%
+  @SuppressWarnings("unchecked")
+  Map<String, Long> latencies = (Map<String, Long>) request.getAttribute("latencies");
+  if (latencies != null && !latencies.isEmpty()) {
+%>
+<tr>
+  <td>Clouds by recent read latency, fastest first:
+  <% for (Map.Entry<String, Long> latency : latencies.entrySet()) { %>
+    <%= HtmlEscapers.htmlEscaper().escape(latency.getKey()) %> (<%= latency.getValue() %> ms)
+  <% } %>
+  </td>
+</tr>
+<% } %>
+<%
+  @SuppressWarnings("unchecked")
+  Map<String, Long> tweetCache = (Map<String, Long>) request.getAttribute("tweetCache");
+  if (tweetCache != null) {
+%>
+<tr>
+  <td>Tweet cache: <%= tweetCache.get("hits") %> hits, <%= tweetCache.get("misses") %> misses,
+    <%= tweetCache.get("evictions") %> evictions</td>
+</tr>
+<% } %>
 <tr>
   <td>jclouds version: <%= JcloudsVersion.get().toString() %></td>
 </tr>
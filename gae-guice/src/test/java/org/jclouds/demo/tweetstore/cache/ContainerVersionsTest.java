@@ -0,0 +1,44 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests behavior of {@code ContainerVersions}
+ */
+@Test(groups = "unit")
+public class ContainerVersionsTest {
+
+   public void testIncrement() {
+      ContainerVersions versions = new ContainerVersions();
+      assertEquals(versions.get(), ImmutableMap.of());
+      versions.increment("2");
+      versions.increment("1");
+      versions.increment("2");
+      assertEquals(versions.get("1"), 1);
+      assertEquals(versions.get("2"), 2);
+      assertEquals(versions.get("3"), 0);
+      assertEquals(versions.get(), ImmutableMap.of("1", 1L, "2", 2L));
+   }
+}
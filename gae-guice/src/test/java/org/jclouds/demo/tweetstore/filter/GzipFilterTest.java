@@ -0,0 +1,73 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.filter;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests behavior of {@code GzipFilter}
+ *
+ * @author Adrian Cole
+ */
+@Test(groups = "unit")
+public class GzipFilterTest {
+
+   public void testAcceptsGzip() {
+      assertTrue(GzipFilter.acceptsGzip("gzip"));
+      assertTrue(GzipFilter.acceptsGzip("deflate, GZIP;q=0.5"));
+      assertTrue(GzipFilter.acceptsGzip("x-gzip"));
+      assertTrue(GzipFilter.acceptsGzip("*"));
+   }
+
+   public void testRejectsOtherCodings() {
+      assertFalse(GzipFilter.acceptsGzip(null));
+      assertFalse(GzipFilter.acceptsGzip(""));
+      assertFalse(GzipFilter.acceptsGzip("deflate, identity"));
+      assertFalse(GzipFilter.acceptsGzip("gzip;q=0"));
+      assertFalse(GzipFilter.acceptsGzip("gzip; q=0.0, deflate"));
+   }
+
+   public void testCompressesToDestination() throws IOException {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      GzipResponseWrapper response = new GzipResponseWrapper(createNiceMock(HttpServletResponse.class), compressed);
+      response.getOutputStream().write("I love ".getBytes(Charsets.UTF_8));
+      response.flushBuffer();
+      response.getOutputStream().write("beans!".getBytes(Charsets.UTF_8));
+      response.finish();
+
+      byte[] uncompressed = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed
+               .toByteArray())));
+      assertEquals(new String(uncompressed, Charsets.UTF_8), "I love beans!");
+   }
+}
@@ -23,9 +23,15 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Predicates.in;
 import static com.google.common.collect.ImmutableSet.copyOf;
 import static com.google.common.collect.Sets.filter;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
 import static org.jclouds.Constants.PROPERTY_STRIP_EXPECT_HEADER;
 import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_BLOBSTORES;
 import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_DICTIONARY;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_REQUEST_TIMEOUT;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_SEGMENTS;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE;
+import static org.jclouds.demo.tweetstore.reference.TweetStoreConstants.PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_ACCESSTOKEN;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_ACCESSTOKEN_SECRET;
 import static org.jclouds.demo.tweetstore.reference.TwitterConstants.PROPERTY_TWITTER_CONSUMER_KEY;
@@ -44,12 +50,19 @@ import javax.servlet.ServletException;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints;
+import org.jclouds.demo.tweetstore.cache.ContainerVersions;
+import org.jclouds.demo.tweetstore.cache.CreatedContainers;
+import org.jclouds.demo.tweetstore.cache.StoredTweetIds;
+import org.jclouds.demo.tweetstore.cache.TweetCache;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
 import org.jclouds.demo.tweetstore.config.util.CredentialsCollector;
 import org.jclouds.demo.tweetstore.config.util.PropertiesLoader;
 import org.jclouds.demo.tweetstore.controller.AddTweetsController;
 import org.jclouds.demo.tweetstore.controller.ClearTweetsController;
 import org.jclouds.demo.tweetstore.controller.EnqueueStoresController;
 import org.jclouds.demo.tweetstore.controller.StoreTweetsController;
+import org.jclouds.demo.tweetstore.controller.TweetsJsonController;
 import org.jclouds.demo.tweetstore.functions.ServiceToStoredTweetStatuses;
 import org.jclouds.gae.config.GoogleAppEngineConfigurationModule;
 import org.jclouds.logging.Logger;
@@ -71,6 +84,7 @@ import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.inject.Module;
 
 /**
@@ -91,6 +105,12 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
    private Twitter twitterClient;
    private String container;
    private Queue queue;
+   private ListeningExecutorService userExecutor;
+   private TweetCache tweetCache;
+   private long snapshotMaxAge;
+   private long requestTimeout;
+   private boolean segments;
+   private String dictionary;
 
    @PostConstruct
    public void initialize() throws IOException {
@@ -123,6 +143,14 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
                   .modules(modules).overrides(props).build(BlobStoreContext.class));
       }
 
+      // App Engine front-end requests cannot start threads that outlive them
+      userExecutor = sameThreadExecutor();
+      tweetCache = new TweetCache(Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_TWEET_CACHE_BYTES, "8388608")));
+      snapshotMaxAge = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE, "30000"));
+      requestTimeout = Long.parseLong(props.getProperty(PROPERTY_TWEETSTORE_REQUEST_TIMEOUT, "10000"));
+      segments = Boolean.parseBoolean(props.getProperty(PROPERTY_TWEETSTORE_SEGMENTS, "false"));
+      dictionary = props.getProperty(PROPERTY_TWEETSTORE_DICTIONARY, "");
+
       // get a queue for submitting store tweet requests
       queue = QueueFactory.getQueue("twitter");
 
@@ -142,7 +170,9 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
 
    @Bean
    public StoreTweetsController storeTweetsController() {
-      StoreTweetsController controller = new StoreTweetsController(providerTypeToBlobStoreMap, container, twitterClient);
+      // the tweets are stored one at a time on the request thread anyway
+      StoreTweetsController controller = new StoreTweetsController(providerTypeToBlobStoreMap, container, twitterClient,
+            containerVersions(), storedTweetIds(), createdContainers(), userExecutor, 1, segments, dictionary);
       injectServletConfig(controller);
       return controller;
    }
@@ -150,7 +180,16 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
    @Bean
    public AddTweetsController addTweetsController() {
       AddTweetsController controller = new AddTweetsController(providerTypeToBlobStoreMap,
-            serviceToStoredTweetStatuses());
+            serviceToStoredTweetStatuses(), userExecutor, containerVersions(), containerCheckpoints(),
+            snapshotMaxAge, requestTimeout, latencies());
+      injectServletConfig(controller);
+      return controller;
+   }
+
+   @Bean
+   public TweetsJsonController tweetsJsonController() {
+      TweetsJsonController controller = new TweetsJsonController(providerTypeToBlobStoreMap,
+            serviceToStoredTweetStatuses(), userExecutor, requestTimeout);
       injectServletConfig(controller);
       return controller;
    }
@@ -162,7 +201,8 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
 
    @Bean
    public ClearTweetsController clearTweetsController() {
-      return new ClearTweetsController(providerTypeToBlobStoreMap, container);
+      return new ClearTweetsController(providerTypeToBlobStoreMap, container, containerVersions(),
+            storedTweetIds(), createdContainers());
    }
 
    private void injectServletConfig(Servlet servlet) {
@@ -175,9 +215,36 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
       LOGGER.trace("Successfully injected servlet config.");
    }
 
+   @Bean
+   ContainerVersions containerVersions() {
+      return new ContainerVersions();
+   }
+
+   @Bean
+   ContainerCheckpoints containerCheckpoints() {
+      return new ContainerCheckpoints(providerTypeToBlobStoreMap, container, userExecutor);
+   }
+
+   @Bean
+   StoredTweetIds storedTweetIds() {
+      return new StoredTweetIds();
+   }
+
+   @Bean
+   CreatedContainers createdContainers() {
+      return new CreatedContainers();
+   }
+
+   @Bean
+   Latencies latencies() {
+      return new Latencies();
+   }
+
    @Bean
    ServiceToStoredTweetStatuses serviceToStoredTweetStatuses() {
-      return new ServiceToStoredTweetStatuses(providerTypeToBlobStoreMap, container);
+      // the tweets are fetched one at a time on the request thread anyway
+      return new ServiceToStoredTweetStatuses(providerTypeToBlobStoreMap, container, userExecutor, 1,
+            tweetCache, latencies(), segments);
    }
 
    @Bean
@@ -186,6 +253,7 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
       Map<String, Object> urlMap = Maps.newHashMapWithExpectedSize(2);
       urlMap.put("/store/*", storeTweetsController());
       urlMap.put("/tweets/*", addTweetsController());
+      urlMap.put("/tweets.json", tweetsJsonController());
       urlMap.put("/stores/*", enqueueStoresController());
       urlMap.put("/clear/*", clearTweetsController());
       mapping.setUrlMap(urlMap);
@@ -212,6 +280,7 @@ public class SpringServletConfig extends LoggingConfig implements ServletConfigA
       LOGGER.trace("About to purge request queue.");
       queue.purge();
       LOGGER.trace("Request queue purged.");
+      userExecutor.shutdownNow();
    }
 
    /*
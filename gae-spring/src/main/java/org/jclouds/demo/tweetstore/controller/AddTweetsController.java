@@ -18,15 +18,28 @@
  */
 package org.jclouds.demo.tweetstore.controller;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.emptyToNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.jclouds.util.Strings2.urlDecode;
+import static org.jclouds.util.Strings2.urlEncode;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Resource;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
@@ -35,13 +48,43 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.internal.PageSetImpl;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints.Version;
+import org.jclouds.demo.tweetstore.cache.ContainerVersions;
+import org.jclouds.demo.tweetstore.concurrent.Deadline;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
+import org.jclouds.demo.tweetstore.concurrent.ParallelIterables;
+import org.jclouds.demo.tweetstore.concurrent.RefreshingSupplier;
+import org.jclouds.demo.tweetstore.concurrent.RefreshingSupplier.Snapshot;
+import org.jclouds.demo.tweetstore.domain.MergedTweetStatus;
 import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
+import org.jclouds.demo.tweetstore.filter.GzipFilter;
+import org.jclouds.demo.tweetstore.filter.GzipResponseWrapper;
 import org.jclouds.demo.tweetstore.functions.ServiceToStoredTweetStatuses;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.jclouds.javax.annotation.Nullable;
 import org.jclouds.logging.Logger;
 
 import com.google.appengine.repackaged.com.google.common.collect.Lists;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.io.BaseEncoding;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 /**
  * Shows an example of how to use @{link BlobStoreContext} injected with Guice.
@@ -54,43 +97,559 @@ public class AddTweetsController extends HttpServlet implements
 
    /** The serialVersionUID */
    private static final long serialVersionUID = 3888348023150822683L;
+   /**
+    * Orders tweets by id as a string, which is the order the blobstores list them in, then by
+    * blobstore. Listing errors have no id and come first.
+    */
+   private static final Ordering<StoredTweetStatus> BY_ID = Ordering.<String> natural().nullsFirst().onResultOf(
+            new Function<StoredTweetStatus, String>() {
+               @Override
+               public String apply(StoredTweetStatus status) {
+                  return status.getId();
+               }
+            }).compound(Ordering.<String> natural().nullsFirst().onResultOf(
+            new Function<StoredTweetStatus, String>() {
+               @Override
+               public String apply(StoredTweetStatus status) {
+                  return status.getService();
+               }
+            }));
+
+   private static final Predicate<StoredTweetStatus> HAS_ID = new Predicate<StoredTweetStatus>() {
+      @Override
+      public boolean apply(StoredTweetStatus status) {
+         return status.getId() != null;
+      }
+   };
+
+   /**
+    * Orders tweets by their numeric id, then by blobstore. Listing errors and ids that are not
+    * numbers come first.
+    */
+   private static final Ordering<StoredTweetStatus> BY_TWEET_ID = Ordering.natural();
+
+   // as declared by tweets.jsp
+   private static final String TWEETS_CONTENT_TYPE = "text/html; charset=UTF-8";
+
+   /**
+    * The tweets page compressed with gzip, for the tweets, the latencies and the tweet cache counts
+    * it was rendered from.
+    */
+   private static class CompressedPage {
+      private final Object tweets;
+      // in ranking order, which equality of the maps would ignore
+      private final List<Entry<String, Long>> latencies;
+      private final Map<String, Long> tweetCache;
+      private final byte[] bytes;
+
+      private CompressedPage(Object tweets, List<Entry<String, Long>> latencies, Map<String, Long> tweetCache,
+               byte[] bytes) {
+         this.tweets = tweets;
+         this.latencies = latencies;
+         this.tweetCache = tweetCache;
+         this.bytes = bytes;
+      }
+   }
+
    private final Map<String, BlobStoreContext> contexts;
    private final ServiceToStoredTweetStatuses blobStoreContextToContainerResult;
+   private final ListeningExecutorService userExecutor;
+   private final ContainerVersions versions;
+   private final ContainerCheckpoints checkpoints;
+   // the checkpoints last read by a request, so that the snapshot is reloaded once another
+   // application instance has changed the containers
+   private volatile Version lastCheckpoints = Version.UNKNOWN;
+   private final RefreshingSupplier<List<StoredTweetStatus>> snapshot;
+   private final long requestTimeout;
+   private final Latencies latencies;
+   private final AtomicReference<CompressedPage> compressedPage = new AtomicReference<CompressedPage>();
 
    @Resource
    protected Logger logger = Logger.NULL;
 
-   @Inject
    public AddTweetsController(Map<String, BlobStoreContext> contexts,
             ServiceToStoredTweetStatuses blobStoreContextToContainerResult) {
+      this(contexts, blobStoreContextToContainerResult, sameThreadExecutor());
+   }
+
+   public AddTweetsController(Map<String, BlobStoreContext> contexts,
+            ServiceToStoredTweetStatuses blobStoreContextToContainerResult,
+            ListeningExecutorService userExecutor) {
+      this(contexts, blobStoreContextToContainerResult, userExecutor, new ContainerVersions(),
+               ContainerCheckpoints.none(), 0, 0, new Latencies());
+   }
+
+   /**
+    * @param checkpoints
+    *           the version of the tweets that all application instances agree on, which the
+    *           validators of the responses are made from
+    * @param snapshotMaxAge
+    *           how long, in milliseconds, the tweets are served from memory before they are
+    *           retrieved again in the background; 0 to retrieve them for every request
+    * @param requestTimeout
+    *           how long, in milliseconds, to wait for the blobstores before showing the ones that
+    *           have not answered as timed out; 0 to wait for all of them
+    * @param latencies
+    *           the read latencies of the blobstores, which are shown fastest first
+    */
+   @Inject
+   public AddTweetsController(Map<String, BlobStoreContext> contexts,
+            ServiceToStoredTweetStatuses blobStoreContextToContainerResult,
+            ListeningExecutorService userExecutor, ContainerVersions versions, ContainerCheckpoints checkpoints,
+            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_SNAPSHOT_MAX_AGE) long snapshotMaxAge,
+            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_REQUEST_TIMEOUT) long requestTimeout,
+            Latencies latencies) {
+      checkArgument(requestTimeout >= 0, "%s must not be negative but was %s",
+               TweetStoreConstants.PROPERTY_TWEETSTORE_REQUEST_TIMEOUT, requestTimeout);
       this.contexts = contexts;
       this.blobStoreContextToContainerResult = blobStoreContextToContainerResult;
+      this.userExecutor = userExecutor;
+      this.versions = versions;
+      this.checkpoints = checkpoints;
+      this.requestTimeout = requestTimeout;
+      this.latencies = latencies;
+      if (snapshotMaxAge > 0) {
+         Supplier<List<StoredTweetStatus>> allTweets = new Supplier<List<StoredTweetStatus>>() {
+            @Override
+            public List<StoredTweetStatus> get() {
+               // shared between requests
+               return apply(AddTweetsController.this.contexts.keySet());
+            }
+         };
+         Supplier<List<Object>> version = new Supplier<List<Object>>() {
+            @Override
+            public List<Object> get() {
+               // read before the tweets, so the tweets are at least as new as the checkpoints
+               return Arrays.<Object> asList(AddTweetsController.this.versions.get(), lastCheckpoints);
+            }
+         };
+         this.snapshot = new RefreshingSupplier<List<StoredTweetStatus>>(allTweets, version, userExecutor,
+                  snapshotMaxAge, TimeUnit.MILLISECONDS);
+      } else {
+         this.snapshot = null;
+      }
    }
 
    @Override
    protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+      Map<String, String> markers = null;
+      int limit = 0;
+      boolean merged;
+      try {
+         String view = request.getParameter("view");
+         checkArgument(view == null || view.equals("merged"), "view must be merged but was %s", view);
+         merged = (view != null);
+         if (request.getParameter("limit") != null) {
+            checkArgument(!merged, "the merged view has no limit");
+            limit = Integer.parseInt(request.getParameter("limit"));
+            checkArgument(limit > 0, "limit must be positive but was %s", limit);
+            String order = request.getParameter("order");
+            checkArgument(order == null || order.equals("newest"), "order must be newest but was %s", order);
+            if (order == null) {
+               String marker = request.getParameter("marker");
+               markers = (marker == null) ? startOfAllContainers() : fromContinuationToken(marker);
+            }
+         }
+      } catch (IllegalArgumentException e) {
+         response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+         return;
+      }
+      // the tweets only change when an application instance stores or clears them, which changes
+      // the checkpoints, so clients can revalidate their copy against those
+      Version currentVersion = currentVersion(request, markers, limit, merged);
+      if (currentVersion == null) {
+         // the request is dispatched again once the checkpoints have been read
+         return;
+      }
+      response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+      if (currentVersion.isKnown()
+               && isNotModified(request, currentVersion.getToken(), currentVersion.getLastModified())) {
+         response.setHeader(HttpHeaders.ETAG, weakETag(currentVersion.getToken()));
+         response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+         return;
+      }
       try {
-         addMyTweetsToRequest(request);
-         RequestDispatcher dispatcher = getServletContext().getRequestDispatcher("/tweets.jsp");
-         dispatcher.forward(request, response);
+         Version version = addTweetsToRequest(request, markers, limit, merged, currentVersion);
+         // if a checkpoint could not be read, the tweets may change without the validators changing
+         if (version.isKnown() && isComplete(request.getAttribute("tweets"))) {
+            response.setHeader(HttpHeaders.ETAG, weakETag(version.getToken()));
+            // otherwise the snapshot is out of date and being reloaded
+            if (version.equals(currentVersion) && version.getLastModified() >= 0) {
+               response.setDateHeader(HttpHeaders.LAST_MODIFIED, version.getLastModified());
+            }
+         } else {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+         }
+         request.setAttribute("latencies", latenciesInMillis());
+         request.setAttribute("tweetCache", tweetCacheCounts());
+         if (markers == null && limit == 0 && !merged && snapshot != null && GzipFilter.isCompressing(request)) {
+            writeCompressedPage(request, response);
+         } else {
+            RequestDispatcher dispatcher = getServletContext().getRequestDispatcher("/tweets.jsp");
+            dispatcher.forward(request, response);
+         }
       } catch (Exception e) {
          logger.error(e, "Error listing containers");
          throw new ServletException(e);
       }
    }
 
-   void addMyTweetsToRequest(HttpServletRequest request) throws InterruptedException,
+   /**
+    * @return true if the tweets have all been retrieved, so that the response can be revalidated
+    *         and reused; false if any of them, or any listing, timed out or failed, or if they are
+    *         only retrieved while the page is being rendered
+    */
+   @VisibleForTesting
+   static boolean isComplete(Object tweets) {
+      if (!(tweets instanceof List)) {
+         return false;
+      }
+      for (Object row : (List<?>) tweets) {
+         String text = (row instanceof MergedTweetStatus) ? ((MergedTweetStatus) row).getTweet()
+                  : ((StoredTweetStatus) row).getTweet();
+         // only the rows of tweets that timed out or failed, and of listings, have no text
+         if (Strings.isNullOrEmpty(text)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * @return the average read latency of each blobstore in milliseconds, fastest first
+    */
+   private Map<String, Long> latenciesInMillis() {
+      Map<String, Long> millis = Maps.newLinkedHashMap();
+      for (Entry<String, Long> latency : latencies.ranking().entrySet()) {
+         millis.put(latency.getKey(), TimeUnit.NANOSECONDS.toMillis(latency.getValue()));
+      }
+      return millis;
+   }
+
+   /**
+    * @return the hit, miss and eviction counts of the tweet cache, which are shown so that the
+    *         effect of its size can be seen
+    */
+   private Map<String, Long> tweetCacheCounts() {
+      CacheStats stats = blobStoreContextToContainerResult.tweetCacheStats();
+      Map<String, Long> counts = Maps.newLinkedHashMap();
+      counts.put("hits", stats.hitCount());
+      counts.put("misses", stats.missCount());
+      counts.put("evictions", stats.evictionCount());
+      return counts;
+   }
+
+   /**
+    * Sends the page rendered from the snapshot compressed with gzip. The page only changes when the
+    * snapshot is reloaded or the latencies shown in milliseconds or the tweet cache counts change,
+    * so it is compressed once for each of those rather than for every request.
+    */
+   private void writeCompressedPage(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+      Object tweets = request.getAttribute("tweets");
+      @SuppressWarnings("unchecked")
+      List<Entry<String, Long>> latencies = ImmutableList.copyOf(
+               ((Map<String, Long>) request.getAttribute("latencies")).entrySet());
+      @SuppressWarnings("unchecked")
+      Map<String, Long> tweetCache = (Map<String, Long>) request.getAttribute("tweetCache");
+      CompressedPage page = compressedPage.get();
+      if (page == null || page.tweets != tweets || !page.latencies.equals(latencies)
+               || !page.tweetCache.equals(tweetCache)) {
+         // an include, unlike a forward, leaves the response open for the compressed page, but
+         // ignores the content type declared by the page
+         response.setContentType(TWEETS_CONTENT_TYPE);
+         ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+         GzipResponseWrapper capture = new GzipResponseWrapper(response, compressed);
+         getServletContext().getRequestDispatcher("/tweets.jsp").include(request, capture);
+         capture.finish();
+         page = new CompressedPage(tweets, latencies, tweetCache, compressed.toByteArray());
+         compressedPage.set(page);
+      }
+      response.setContentType(TWEETS_CONTENT_TYPE);
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      response.setContentLength(page.bytes.length);
+      response.getOutputStream().write(page.bytes);
+   }
+
+   /**
+    * @return the current version of the tweets, or null if it is read asynchronously, in which
+    *         case the request is dispatched again once it has been
+    */
+   Version currentVersion(HttpServletRequest request, @Nullable Map<String, String> markers, int limit,
+            boolean merged) {
+      return readCheckpoints();
+   }
+
+   /**
+    * Reads the checkpoints of all the blobstores, waiting for them until the request timeout.
+    *
+    * @return the current version of the tweets
+    */
+   Version readCheckpoints() {
+      Version currentVersion = checkpoints.get(Deadline.after(requestTimeout, TimeUnit.MILLISECONDS));
+      if (currentVersion.isKnown()) {
+         lastCheckpoints = currentVersion;
+      }
+      return currentVersion;
+   }
+
+   /**
+    * @return the checkpoints last read that were known
+    */
+   Version lastCheckpoints() {
+      return lastCheckpoints;
+   }
+
+   /**
+    * @return true if the tweets of the view are served from the snapshot already in memory, so that
+    *         adding them to the request does not wait for the blobstores
+    */
+   boolean isInMemory(@Nullable Map<String, String> markers, boolean merged) {
+      return snapshot != null && snapshot.isLoaded() && markers == null && !merged;
+   }
+
+   /**
+    * Adds the merged tweets to the request for the merged view, or else a page of at most
+    * {@code limit} tweets if there are markers, the {@code limit} newest tweets if there are none,
+    * or else all the tweets if the limit is 0.
+    *
+    * @return the version of the containers the tweets reflect
+    */
+   Version addTweetsToRequest(HttpServletRequest request, @Nullable Map<String, String> markers,
+            int limit, boolean merged, Version currentVersion) throws InterruptedException,
             ExecutionException, TimeoutException {
-      request.setAttribute("tweets", apply(contexts.keySet()));
+      if (merged) {
+         addMergedTweetsToRequest(request);
+         return currentVersion;
+      }
+      if (markers == null) {
+         return (limit == 0) ? addMyTweetsToRequest(request, currentVersion) : addNewestTweetsToRequest(request,
+                  limit, currentVersion);
+      }
+      addTweetsPageToRequest(request, markers, limit);
+      return currentVersion;
+   }
+
+   /**
+    * @return the version of the containers the tweets added to the request reflect
+    */
+   Version addMyTweetsToRequest(HttpServletRequest request, Version currentVersion)
+            throws InterruptedException, ExecutionException, TimeoutException {
+      if (snapshot == null) {
+         // retrieved while the page is being rendered
+         request.setAttribute("tweets", mergeTweets(contexts.keySet()));
+         return currentVersion;
+      }
+      Snapshot<List<StoredTweetStatus>> tweets = snapshot.getSnapshot();
+      request.setAttribute("tweets", tweets.getValue());
+      return checkpointsOf(tweets);
+   }
+
+   /**
+    * @return the version of the containers the tweets added to the request reflect
+    */
+   Version addNewestTweetsToRequest(HttpServletRequest request, int limit,
+            Version currentVersion) throws InterruptedException, ExecutionException, TimeoutException {
+      if (snapshot == null) {
+         request.setAttribute("tweets", newest(contexts.keySet(), limit));
+         return currentVersion;
+      }
+      // already in memory
+      Snapshot<List<StoredTweetStatus>> tweets = snapshot.getSnapshot();
+      request.setAttribute("tweets", newest(tweets.getValue(), limit));
+      return checkpointsOf(tweets);
+   }
+
+   private static Version checkpointsOf(Snapshot<List<StoredTweetStatus>> tweets) {
+      return (Version) ((List<?>) tweets.getVersion()).get(1);
    }
 
+   /**
+    * Adds the merged tweets to the request, to be retrieved while the page is being rendered, along
+    * with the blobstores to show a column for.
+    */
+   void addMergedTweetsToRequest(HttpServletRequest request) {
+      List<String> services = ImmutableList.copyOf(contexts.keySet());
+      request.setAttribute("services", services);
+      request.setAttribute("tweets", merged(services));
+   }
+
+   void addTweetsPageToRequest(HttpServletRequest request, Map<String, String> markers, int limit) {
+      PageSet<StoredTweetStatus> page = apply(markers, limit);
+      request.setAttribute("tweets", ImmutableList.copyOf(page));
+      request.setAttribute("limit", limit);
+      request.setAttribute("nextMarker", page.getNextMarker());
+   }
+
+   /**
+    * Queries all the given blobstores at once, so the overall time taken is that of the slowest
+    * blobstore rather than the sum of all of them, but no more than the request timeout. The
+    * tweets are sorted by their numeric id, so that "9" comes before "10".
+    */
    public List<StoredTweetStatus> apply(Set<String> in) {
-      List<StoredTweetStatus> statuses = Lists.newArrayList();
-      for (Iterable<StoredTweetStatus> list : Iterables.transform(in,
-               blobStoreContextToContainerResult)) {
-         Iterables.addAll(statuses, list);
+      // already merged by id as a string, so only differently long ids need to move
+      return BY_TWEET_ID.immutableSortedCopy(mergeTweets(in));
+   }
+
+   /**
+    * Lists all the given blobstores at once and merges their tweets, which each blobstore lists in
+    * order of their id as a string, into a single iterable in that order, so that "10" comes before
+    * "9". The tweets are retrieved from all the blobstores in parallel as the iterable is consumed,
+    * until the request timeout expires, holding only those being retrieved.
+    */
+   Iterable<StoredTweetStatus> mergeTweets(Set<String> in) {
+      Deadline deadline = Deadline.after(requestTimeout, TimeUnit.MILLISECONDS);
+      ImmutableList.Builder<Iterable<StoredTweetStatus>> statuses = ImmutableList.builder();
+      for (String service : in) {
+         // starts listing the blobstore in the background
+         statuses.add(blobStoreContextToContainerResult.apply(service, deadline));
+      }
+      return Iterables.mergeSorted(statuses.build(), BY_ID);
+   }
+
+   /**
+    * Lists all the given blobstores at once and merges their tweets, retrieving each tweet from only
+    * one of the blobstores that hold it, until the request timeout expires. The returned iterable
+    * can only be iterated once.
+    */
+   public Iterable<MergedTweetStatus> merged(List<String> in) {
+      return blobStoreContextToContainerResult.merged(in, Deadline.after(requestTimeout, TimeUnit.MILLISECONDS));
+   }
+
+   /**
+    * Retrieves the {@code limit} newest tweets of all the given blobstores in parallel, newest
+    * first, preceded by any listing errors. Each blobstore only retrieves its own {@code limit}
+    * newest tweets, so no more than that are held in memory per blobstore.
+    */
+   public List<StoredTweetStatus> newest(Set<String> in, final int limit) {
+      final Deadline deadline = Deadline.after(requestTimeout, TimeUnit.MILLISECONDS);
+      Function<String, List<StoredTweetStatus>> loadNewest = new Function<String, List<StoredTweetStatus>>() {
+         @Override
+         public List<StoredTweetStatus> apply(String service) {
+            return blobStoreContextToContainerResult.newest(service, limit, deadline);
+         }
+      };
+      return newest(ImmutableList.copyOf(Iterables.concat(ParallelIterables.transform(in, loadNewest, userExecutor,
+               Math.max(in.size(), 1)))), limit);
+   }
+
+   /**
+    * @return the rows without an id, which report listing errors, followed by the {@code limit}
+    *         tweets with the highest ids, highest first
+    */
+   @VisibleForTesting
+   static List<StoredTweetStatus> newest(List<StoredTweetStatus> tweets, int limit) {
+      return ImmutableList.<StoredTweetStatus> builder().addAll(Iterables.filter(tweets, Predicates.not(HAS_ID)))
+               .addAll(BY_TWEET_ID.greatestOf(Iterables.filter(tweets, HAS_ID), limit)).build();
+   }
+
+   /**
+    * Retrieves a page of at most {@code limit} tweets from each of the given blobstores, in
+    * parallel. The markers map each blobstore to the marker its listing resumes after, or to the
+    * empty string to start at the beginning. The next marker of the result is the continuation
+    * token for the following page, or null once all the blobstores have been listed completely.
+    * <p/>
+    * The tweets are in order of their id as a string, which is the order the blobstores page
+    * through them in, so that the tweets of a page all come after those of the previous page. The
+    * tweets packed into segments, if enabled, are on the last pages; see
+    * {@link ServiceToStoredTweetStatuses#apply(String, String, int)}.
+    */
+   public PageSet<StoredTweetStatus> apply(Map<String, String> markers, final int limit) {
+      final Deadline deadline = Deadline.after(requestTimeout, TimeUnit.MILLISECONDS);
+      // ignore blobstores that are no longer configured
+      List<Entry<String, String>> services = ImmutableList.copyOf(Maps.filterKeys(markers,
+               Predicates.in(contexts.keySet())).entrySet());
+      Function<Entry<String, String>, PageSet<StoredTweetStatus>> loadPage = new Function<Entry<String, String>, PageSet<StoredTweetStatus>>() {
+         @Override
+         public PageSet<StoredTweetStatus> apply(Entry<String, String> marker) {
+            return blobStoreContextToContainerResult.apply(marker.getKey(), emptyToNull(marker.getValue()), limit,
+                     deadline);
+         }
+      };
+      List<PageSet<StoredTweetStatus>> pages = Lists.newArrayList();
+      Map<String, String> nextMarkers = Maps.newLinkedHashMap();
+      Iterator<Entry<String, String>> service = services.iterator();
+      for (PageSet<StoredTweetStatus> page : ParallelIterables.transform(services, loadPage, userExecutor,
+               Math.max(services.size(), 1))) {
+         pages.add(page);
+         String name = service.next().getKey();
+         if (page.getNextMarker() != null) {
+            nextMarkers.put(name, page.getNextMarker());
+         }
+      }
+      return new PageSetImpl<StoredTweetStatus>(ImmutableList.copyOf(Iterables.mergeSorted(pages, BY_ID)),
+               nextMarkers.isEmpty() ? null
+               : toContinuationToken(nextMarkers));
+   }
+
+   /**
+    * Evaluates the conditional headers of the request against the current version of the tweets.
+    * If-None-Match takes precedence over If-Modified-Since.
+    */
+   @VisibleForTesting
+   static boolean isNotModified(HttpServletRequest request, String token, long lastModified) {
+      String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+      if (ifNoneMatch != null) {
+         for (String eTag : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+            if (eTag.equals("*") || eTag.equals(weakETag(token)) || eTag.equals("\"" + token + "\"")) {
+               return true;
+            }
+         }
+         return false;
+      }
+      if (lastModified < 0) {
+         // not known
+         return false;
+      }
+      try {
+         long ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+         // HTTP dates are only accurate to the second
+         return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+      } catch (IllegalArgumentException e) {
+         return false;
+      }
+   }
+
+   /**
+    * Weak, since the status column changes with every retrieval.
+    */
+   private static String weakETag(String token) {
+      return "W/\"" + token + "\"";
+   }
+
+   private Map<String, String> startOfAllContainers() {
+      Map<String, String> markers = Maps.newLinkedHashMap();
+      for (String service : contexts.keySet()) {
+         markers.put(service, "");
+      }
+      return markers;
+   }
+
+   /**
+    * Combines the markers of several blobstores into a single, URL-safe token.
+    */
+   @VisibleForTesting
+   static String toContinuationToken(Map<String, String> markers) {
+      Map<String, String> encoded = Maps.newLinkedHashMap();
+      for (Entry<String, String> marker : markers.entrySet()) {
+         encoded.put(urlEncode(marker.getKey()), urlEncode(marker.getValue()));
+      }
+      return BaseEncoding.base64Url().omitPadding().encode(
+               Joiner.on('&').withKeyValueSeparator("=").join(encoded).getBytes(Charsets.UTF_8));
+   }
+
+   /**
+    * @throws IllegalArgumentException
+    *            if the token was not created by {@link #toContinuationToken}
+    */
+   @VisibleForTesting
+   static Map<String, String> fromContinuationToken(String token) {
+      String decoded = new String(BaseEncoding.base64Url().omitPadding().decode(token), Charsets.UTF_8);
+      Map<String, String> markers = Maps.newLinkedHashMap();
+      for (Entry<String, String> marker : Splitter.on('&').withKeyValueSeparator("=").split(decoded).entrySet()) {
+         markers.put(urlDecode(marker.getKey()), urlDecode(marker.getValue()));
       }
-      return statuses;
+      return markers;
    }
-}
\ No newline at end of file
+}
@@ -19,8 +19,12 @@
 package org.jclouds.demo.tweetstore.controller;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.jclouds.util.Strings2.toStringAndClose;
+import static org.jclouds.util.Strings2.urlEncode;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.Map;
 
 import javax.annotation.Resource;
@@ -36,15 +40,29 @@ import javax.ws.rs.core.MediaType;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints;
+import org.jclouds.demo.tweetstore.cache.ContainerVersions;
+import org.jclouds.demo.tweetstore.cache.CreatedContainers;
+import org.jclouds.demo.tweetstore.cache.StoredTweetIds;
+import org.jclouds.demo.tweetstore.concurrent.ParallelIterables;
+import org.jclouds.demo.tweetstore.functions.TweetCodec;
+import org.jclouds.demo.tweetstore.functions.TweetSegments;
 import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
 import org.jclouds.logging.Logger;
 import org.jclouds.rest.AuthorizationException;
 
+import twitter4j.Paging;
 import twitter4j.Status;
 import twitter4j.Twitter;
+import twitter4j.TwitterException;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 /**
  * Grab tweets related to me and store them into blobstores
@@ -56,66 +74,290 @@ public class StoreTweetsController extends HttpServlet {
 
    private static final class StatusToBlob implements Function<Status, Blob> {
       private final BlobStore store;
+      private final TweetCodec codec;
 
-      private StatusToBlob(BlobStore store) {
+      private StatusToBlob(BlobStore store, TweetCodec codec) {
          this.store = store;
+         this.codec = codec;
       }
 
       public Blob apply(Status from) {
          Blob to = store.blobBuilder(from.getId() + "").build();
-         to.setPayload(from.getText());
-         to.getPayload().getContentMetadata().setContentType(MediaType.TEXT_PLAIN);
+         boolean compressed = codec.setPayload(to, from.getText(), MediaType.TEXT_PLAIN);
          to.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, from.getUser().getScreenName());
+         if (compressed) {
+            // a copy of the text would take back the space saved by compressing it
+            return to;
+         }
+         String encodedText = urlEncode(from.getText());
+         if (encodedText.length() <= TweetStoreConstants.MAX_METADATA_TWEET_LENGTH) {
+            to.getMetadata().getUserMetadata().put(TweetStoreConstants.TWEET_TEXT, encodedText);
+         }
          return to;
       }
    }
 
+   /**
+    * Stores a single tweet, unless it is already stored, returning the error if it could not be
+    * stored. Authorization errors are thrown, as they fail every other tweet of the blobstore as
+    * well.
+    */
+   private static final class StoreStatus implements Function<Status, Optional<Exception>> {
+      private final BlobStore store;
+      private final String container;
+      private final StoredTweetIds.Ids stored;
+      private final TweetCodec codec;
+
+      private StoreStatus(BlobStore store, String container, StoredTweetIds.Ids stored, TweetCodec codec) {
+         this.store = store;
+         this.container = container;
+         this.stored = stored;
+         this.codec = codec;
+      }
+
+      public Optional<Exception> apply(Status from) {
+         try {
+            // only tweets that might be stored already are looked up
+            if (stored.mightContain(from.getId()) && store.blobExists(container, from.getId() + "")) {
+               return Optional.absent();
+            }
+            store.putBlob(container, new StatusToBlob(store, codec).apply(from));
+            stored.put(from.getId());
+            return Optional.absent();
+         } catch (AuthorizationException e) {
+            throw e;
+         } catch (Exception e) {
+            return Optional.of(e);
+         }
+      }
+   }
+
    /** The serialVersionUID */
    private static final long serialVersionUID = 7215420527854203714L;
 
+   /**
+    * Checkpoint of a container in which no tweets have been stored yet.
+    */
+   @VisibleForTesting
+   static final long NO_CHECKPOINT = 0;
+
    private final Map<String, BlobStoreContext> contexts;
    private final Twitter client;
    private final String container;
+   private final ContainerVersions versions;
+   private final StoredTweetIds storedIds;
+   private final CreatedContainers createdContainers;
+   private final ListeningExecutorService userExecutor;
+   private final int putsPerProvider;
+   private final boolean segments;
+   private final TweetCodec codec;
 
    @Resource
    protected Logger logger = Logger.NULL;
 
-   @Inject
    @VisibleForTesting
+   public StoreTweetsController(Map<String, BlobStoreContext> contexts, String container, Twitter client) {
+      this(contexts, container, client, new ContainerVersions());
+   }
+
+   @VisibleForTesting
+   public StoreTweetsController(Map<String, BlobStoreContext> contexts, String container, Twitter client,
+         ContainerVersions versions) {
+      this(contexts, container, client, versions, new StoredTweetIds(), new CreatedContainers(),
+            sameThreadExecutor(), 1, false, "");
+   }
+
+   @Inject
    public StoreTweetsController(Map<String, BlobStoreContext> contexts,
-         @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER) String container, Twitter client) {
+         @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER) String container, Twitter client,
+         ContainerVersions versions, StoredTweetIds storedIds, CreatedContainers createdContainers,
+         ListeningExecutorService userExecutor,
+         @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_PUTS_PER_PROVIDER) int putsPerProvider,
+         @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_SEGMENTS) boolean segments,
+         @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_DICTIONARY) String dictionary) {
       this.container = container;
       this.contexts = contexts;
       this.client = client;
+      this.versions = versions;
+      this.storedIds = storedIds;
+      this.createdContainers = createdContainers;
+      this.userExecutor = userExecutor;
+      this.putsPerProvider = putsPerProvider;
+      this.segments = segments;
+      this.codec = TweetCodec.forDictionary(dictionary);
    }
 
+   /**
+    * Stores the tweets in the given blobstore, with up to {@code putsPerProvider} of them being
+    * stored at the same time. Tweets that are already stored are skipped; see
+    * {@link StoredTweetIds}. Errors are logged in the order of the tweets; an
+    * {@link AuthorizationException} aborts the remaining tweets.
+    * <p/>
+    * If {@link TweetStoreConstants#PROPERTY_TWEETSTORE_SEGMENTS segments} are enabled, the tweets
+    * are packed into the segments of the hours in which they were sent instead; see
+    * {@link TweetSegments}.
+    */
    @VisibleForTesting
    public void addMyTweets(String contextName, Iterable<Status> responseList) {
-      BlobStoreContext context = checkNotNull(contexts.get(contextName), "no context for " + contextName + " in "
-            + contexts.keySet());
-      BlobStore store = context.getBlobStore();
-      store.createContainerInLocation(null, container);
-      for (Status status : responseList) {
-         Blob blob = null;
-         try {
-            blob = new StatusToBlob(store).apply(status);
-            store.putBlob(container, blob);
-         } catch (AuthorizationException e) {
-            throw e;
-         } catch (Exception e) {
-            logger.error(e, "Error storing tweet %s (blob[%s]) on map %s/%s", status.getId(), blob, context, container);
+      addMyTweets(contextName, responseList, checkpoint(contextName));
+   }
+
+   /**
+    * Like {@link #addMyTweets(String, Iterable)}. Once all the tweets have been stored, the
+    * checkpoint is moved to the newest of them, if it is newer than {@code checkpoint}; after an
+    * error it is left at {@code checkpoint}, so that the tweets that could not be stored are
+    * retrieved again. Either way it is rewritten, so that all application instances can tell from
+    * its ETag that the container has changed; see {@link ContainerCheckpoints}.
+    */
+   private void addMyTweets(String contextName, Iterable<Status> responseList, long checkpoint) {
+      BlobStore store = checkNotNull(contexts.get(contextName), "no context for " + contextName + " in "
+            + contexts.keySet()).getBlobStore();
+      createdContainers.create(contextName, store, container);
+      long newest = segments ? addToSegments(contextName, store, responseList) : addEach(contextName, store,
+            responseList);
+      if (!Iterables.isEmpty(responseList)) {
+         storeCheckpoint(store, Math.max(newest, checkpoint));
+      }
+      versions.increment(contextName);
+   }
+
+   /**
+    * Stores each tweet in a blob of its own.
+    * 
+    * @return the id of the newest tweet, or {@link #NO_CHECKPOINT} if any of them could not be
+    *         stored
+    */
+   private long addEach(String contextName, BlobStore store, Iterable<Status> responseList) {
+      StoredTweetIds.Ids stored = storedIds(contextName, store);
+      Iterator<Status> statuses = responseList.iterator();
+      long newest = NO_CHECKPOINT;
+      boolean failed = false;
+      for (Optional<Exception> error : ParallelIterables.transform(responseList, new StoreStatus(store, container,
+            stored, codec), userExecutor, putsPerProvider)) {
+         Status status = statuses.next();
+         if (error.isPresent()) {
+            logger.error(error.get(), "Error storing tweet %s on map %s/%s", status.getId(), contextName, container);
+            createdContainers.failed(contextName, error.get());
+            failed = true;
+         } else {
+            newest = Math.max(newest, status.getId());
+         }
+      }
+      try {
+         storedIds.save(contextName, store, container);
+      } catch (AuthorizationException e) {
+         throw e;
+      } catch (Exception e) {
+         logger.error(e, "Error saving the ids of the tweets on map %s/%s", contextName, container);
+      }
+      return failed ? NO_CHECKPOINT : newest;
+   }
+
+   /**
+    * Adds the tweets to the segments of the hours in which they were sent, each in a part of its
+    * own, so that no blob is read and rewritten by this or any other application instance.
+    * 
+    * @return the id of the newest tweet, or {@link #NO_CHECKPOINT} if the tweets could not be
+    *         stored
+    */
+   private long addToSegments(String contextName, BlobStore store, Iterable<Status> responseList) {
+      ListMultimap<String, TweetSegments.Tweet> bySegment = ArrayListMultimap.create();
+      long newest = NO_CHECKPOINT;
+      try {
+         for (Status status : responseList) {
+            bySegment.put(TweetSegments.segmentOf(status.getCreatedAt()), new TweetSegments.Tweet(status.getId(),
+                  status.getUser().getScreenName(), status.getText()));
+            newest = Math.max(newest, status.getId());
+         }
+         if (bySegment.isEmpty()) {
+            return NO_CHECKPOINT;
+         }
+         TweetSegments tweetSegments = new TweetSegments(store, container, codec);
+         for (String segment : bySegment.keySet()) {
+            tweetSegments.add(segment, bySegment.get(segment));
          }
+         return newest;
+      } catch (AuthorizationException e) {
+         throw e;
+      } catch (Exception e) {
+         // the parts are complete, so the tweets are simply added again next time
+         logger.error(e, "Error storing %s tweets in segments on map %s/%s", bySegment.size(), contextName,
+               container);
+         createdContainers.failed(contextName, e);
+         return NO_CHECKPOINT;
       }
    }
 
+   /**
+    * @return the ids of the tweets stored in the given blobstore, or no ids if they cannot be read,
+    *         so that all the tweets are stored
+    */
+   private StoredTweetIds.Ids storedIds(String contextName, BlobStore store) {
+      try {
+         return storedIds.get(contextName, store, container);
+      } catch (AuthorizationException e) {
+         throw e;
+      } catch (Exception e) {
+         logger.error(e, "Error reading the ids of the tweets on map %s/%s", contextName, container);
+         createdContainers.failed(contextName, e);
+         return StoredTweetIds.none();
+      }
+   }
+
+   /**
+    * @return the id of the newest tweet stored in the container of the given blobstore, or
+    *         {@link #NO_CHECKPOINT} if there is none or it cannot be read
+    */
+   @VisibleForTesting
+   long checkpoint(String contextName) {
+      BlobStore store = checkNotNull(contexts.get(contextName), "no context for " + contextName + " in "
+            + contexts.keySet()).getBlobStore();
+      try {
+         Blob blob = store.getBlob(container, TweetStoreConstants.CHECKPOINT_NAME);
+         if (blob == null) {
+            return NO_CHECKPOINT;
+         }
+         Long id = ContainerCheckpoints.parseCheckpoint(toStringAndClose(blob.getPayload().openStream()));
+         return (id != null && id > 0) ? id : NO_CHECKPOINT;
+      } catch (AuthorizationException e) {
+         throw e;
+      } catch (Exception e) {
+         // e.g. the container does not exist yet
+         logger.debug("no checkpoint in %s/%s: %s", contextName, container, e);
+         createdContainers.failed(contextName, e);
+         return NO_CHECKPOINT;
+      }
+   }
+
+   private void storeCheckpoint(BlobStore store, long newest) {
+      try {
+         store.putBlob(container, ContainerCheckpoints.newCheckpoint(store, newest));
+      } catch (AuthorizationException e) {
+         throw e;
+      } catch (Exception e) {
+         // the tweets since the previous checkpoint are simply stored again next time
+         logger.error(e, "Error storing checkpoint %s on map %s", newest, container);
+      }
+   }
+
+   /**
+    * Retrieves only the mentions newer than the checkpoint of the given blobstore, or the latest
+    * mentions if there is no checkpoint yet.
+    */
+   private Iterable<Status> newMentions(long checkpoint) throws TwitterException {
+      return (checkpoint == NO_CHECKPOINT) ? client.getMentionsTimeline() : client.getMentionsTimeline(new Paging(
+            checkpoint));
+   }
+
    @Override
    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
       if (request.getHeader("X-AppEngine-QueueName") != null
             && request.getHeader("X-AppEngine-QueueName").equals("twitter")) {
          try {
             String contextName = checkNotNull(request.getHeader("context"), "missing header context");
-            logger.info("retrieving tweets");
-            addMyTweets(contextName, client.getMentionsTimeline());
+            long checkpoint = checkpoint(contextName);
+            logger.info("retrieving tweets since %s", checkpoint);
+            addMyTweets(contextName, newMentions(checkpoint), checkpoint);
             logger.debug("done storing tweets");
             response.setContentType(MediaType.TEXT_PLAIN);
             response.getWriter().println("Done!");
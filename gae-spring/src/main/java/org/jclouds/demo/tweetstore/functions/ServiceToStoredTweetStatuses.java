@@ -18,8 +18,26 @@
  */
 package org.jclouds.demo.tweetstore.functions;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Strings.nullToEmpty;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.maxResults;
+
 import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Resource;
 import javax.inject.Inject;
@@ -28,48 +46,682 @@ import javax.inject.Singleton;
 
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.internal.PageSetImpl;
 import org.jclouds.blobstore.options.ListContainerOptions;
-import org.jclouds.blobstore.strategy.internal.ConcatenateContainerLists;
+import org.jclouds.demo.tweetstore.cache.TweetCache;
+import org.jclouds.demo.tweetstore.concurrent.Deadline;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
+import org.jclouds.demo.tweetstore.concurrent.ParallelIterables;
+import org.jclouds.demo.tweetstore.domain.MergedTweetStatus;
 import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
 import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.jclouds.javax.annotation.Nullable;
 import org.jclouds.logging.Logger;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.collect.Sets;
+import com.google.common.collect.TreeMultimap;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 @Singleton
 public class ServiceToStoredTweetStatuses implements Function<String, Iterable<StoredTweetStatus>> {
+   /**
+    * Orders blobs by the tweet id they are named after as a number, so that "9" comes before "10",
+    * which the services list after it, then by name. Blobs not named after a tweet come first.
+    * Only used to pick the newest tweets, as sorting a whole listing would hold it in memory.
+    */
+   private static final Ordering<StorageMetadata> BY_TWEET_ID = Ordering.<Long> natural().nullsFirst().onResultOf(
+            new Function<StorageMetadata, Long>() {
+               @Override
+               public Long apply(StorageMetadata input) {
+                  return Longs.tryParse(input.getName());
+               }
+            }).compound(Ordering.<String> natural().onResultOf(new Function<StorageMetadata, String>() {
+               @Override
+               public String apply(StorageMetadata input) {
+                  return input.getName();
+               }
+            }));
+   /**
+    * Orders the blobs listed by all the services by name, which is the order each service lists
+    * them in.
+    */
+   private static final Ordering<Entry<String, StorageMetadata>> BY_NAME = Ordering.<String> natural().onResultOf(
+            new Function<Entry<String, StorageMetadata>, String>() {
+               @Override
+               public String apply(Entry<String, StorageMetadata> input) {
+                  return input.getValue().getName();
+               }
+            });
+
+   /**
+    * Maximum number of rendered tweets kept from the last listing of each service. The tweets of a
+    * larger container beyond those are left to the {@link TweetCache}.
+    */
+   @VisibleForTesting
+   static final int MAX_REUSED_TWEETS = 10000;
+
+   /**
+    * A tweet rendered from a blob, with the ETag of the blob it was read from.
+    */
+   private static class Rendered {
+      private final String eTag;
+      private final String from;
+      private final String tweet;
+
+      private Rendered(String eTag, String from, String tweet) {
+         this.eTag = eTag;
+         this.from = from;
+         this.tweet = tweet;
+      }
+   }
 
    private final Map<String, BlobStoreContext> contexts;
    private final String container;
+   private final ListeningExecutorService userExecutor;
+   private final int maxFetchesPerProvider;
+   private final TweetCache tweetCache;
+   private final Latencies latencies;
+   private final boolean segments;
+   // the tweets rendered from the last listing of each service that was read to the end, by blob
+   // name; no more than MAX_REUSED_TWEETS of them
+   private final ConcurrentMap<String, Map<String, Rendered>> lastListings = Maps.newConcurrentMap();
+
+   public ServiceToStoredTweetStatuses(Map<String, BlobStoreContext> contexts, String container) {
+      this(contexts, container, sameThreadExecutor(), 1, new TweetCache(0));
+   }
+
+   public ServiceToStoredTweetStatuses(Map<String, BlobStoreContext> contexts, String container,
+            ListeningExecutorService userExecutor, int maxFetchesPerProvider, TweetCache tweetCache) {
+      this(contexts, container, userExecutor, maxFetchesPerProvider, tweetCache, new Latencies(), false);
+   }
 
    @Inject
    public ServiceToStoredTweetStatuses(Map<String, BlobStoreContext> contexts,
-            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER) String container) {
+            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER) String container,
+            ListeningExecutorService userExecutor,
+            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER) int maxFetchesPerProvider,
+            TweetCache tweetCache, Latencies latencies,
+            @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_SEGMENTS) boolean segments) {
+      checkArgument(maxFetchesPerProvider > 0, "%s must be positive but was %s",
+            TweetStoreConstants.PROPERTY_TWEETSTORE_FETCHES_PER_PROVIDER, maxFetchesPerProvider);
       this.contexts = contexts;
       this.container = container;
+      this.userExecutor = userExecutor;
+      this.maxFetchesPerProvider = maxFetchesPerProvider;
+      this.tweetCache = tweetCache;
+      this.latencies = latencies;
+      this.segments = segments;
    }
 
    @Resource
    protected Logger logger = Logger.NULL;
 
+   /**
+    * Lists the tweets in the given service's container. Tweets whose text is stored in the user
+    * metadata are taken straight from the listing, and previously retrieved tweets from the
+    * {@link TweetCache}; the others are retrieved in parallel, with at most
+    * {@code maxFetchesPerProvider} requests to the service in flight, as the returned iterable is
+    * consumed. The tweets are returned in listing order, which is that of their ids as strings, so
+    * that "10" comes before "9"; see {@link #newest} for the tweets in order of their numeric id.
+    * <p/>
+    * Once the tweets have been read to the end, up to {@link #MAX_REUSED_TWEETS} of them are kept,
+    * with the ETags of their blobs, until the next listing of the service, which shows those whose
+    * blobs are unchanged as "reused" without retrieving them, even if they have been evicted from
+    * the {@link TweetCache} since. The hit and miss counts of the cache are logged then.
+    * <p/>
+    * The listing is read once, as the returned iterable is consumed, and only the tweets being
+    * retrieved are held besides the page being read. The returned iterable can therefore only be
+    * iterated once.
+    */
    public Iterable<StoredTweetStatus> apply(String service) {
+      return apply(service, Deadline.none());
+   }
+
+   /**
+    * Like {@link #apply(String)}, but does not wait for the service past the deadline. The first
+    * page of the listing is requested right away, and each following page while the tweets of the
+    * previous one are retrieved. If the listing is not complete by the deadline, the tweets listed so far
+    * are followed by a "timed out" row; tweets not retrieved by then are shown as timed out.
+    * <p/>
+    * The tweets stored one per blob are followed by those packed into segments, if
+    * {@link TweetStoreConstants#PROPERTY_TWEETSTORE_SEGMENTS segments} are enabled; see
+    * {@link TweetSegments}. The index of the segments is then requested along with the first page.
+    */
+   public Iterable<StoredTweetStatus> apply(final String service, final Deadline deadline) {
+      BlobStoreContext context = contexts.get(service);
+      final String host = URI.create(context.unwrap().getProviderMetadata().getEndpoint()).getHost();
+      final BlobStore store = context.getBlobStore();
+      final ContainerListing listing = new ContainerListing(store, container, userExecutor, deadline);
+      final TweetSegments tweetSegments = new TweetSegments(store, container);
+      final ListenableFutureTask<SortedMap<String, Integer>> index = segments ? requestIndex(tweetSegments) : null;
+      return new FluentIterable<StoredTweetStatus>() {
+         @Override
+         public Iterator<StoredTweetStatus> iterator() {
+            final Map<String, Rendered> listed = Maps.newConcurrentMap();
+            final Iterator<StoredTweetStatus> statuses = toStatuses(listing, store, service, host, listed,
+                     deadline);
+            return new AbstractIterator<StoredTweetStatus>() {
+               private Iterator<StoredTweetStatus> packed;
+
+               @Override
+               protected StoredTweetStatus computeNext() {
+                  if (statuses.hasNext()) {
+                     return statuses.next();
+                  }
+                  if (packed == null) {
+                     packed = (index != null) ? readSegments(tweetSegments, index, Ordering.<String> natural(),
+                              Integer.MAX_VALUE, service, host, deadline)
+                              : Collections.<StoredTweetStatus> emptyIterator();
+                     Throwable failure = listing.getFailure();
+                     if (failure != null) {
+                        // the tweets listed so far are shown, followed by the reason the listing ended
+                        return (failure instanceof TimeoutException) ? timedOut(service, host) : listingError(
+                                 service, host, failure);
+                     }
+                     lastListings.put(service, listed);
+                     logCacheStats(service);
+                  }
+                  return packed.hasNext() ? packed.next() : endOfData();
+               }
+            };
+         }
+      };
+   }
+
+   private ListenableFutureTask<SortedMap<String, Integer>> requestIndex(final TweetSegments segments) {
+      ListenableFutureTask<SortedMap<String, Integer>> index = ListenableFutureTask.create(
+               new Callable<SortedMap<String, Integer>>() {
+                  @Override
+                  public SortedMap<String, Integer> call() {
+                     return segments.index();
+                  }
+               });
+      userExecutor.execute(index);
+      return index;
+   }
+
+   /**
+    * Reads the parts of the segments in the index in the given order, at most
+    * {@code maxFetchesPerProvider} at once, until they hold at least {@code limit} tweets. If the
+    * index cannot be read, or a part is not read by the deadline, its tweets are replaced by a
+    * single row that says so. Tweets stored in more than one part are only returned once.
+    */
+   private Iterator<StoredTweetStatus> readSegments(final TweetSegments segments,
+            ListenableFutureTask<SortedMap<String, Integer>> index, Ordering<String> order, int limit,
+            final String service, final String host, Deadline deadline) {
+      SortedMap<String, Integer> sizes;
+      try {
+         sizes = deadline.await(index);
+      } catch (TimeoutException e) {
+         index.cancel(false);
+         return Iterators.singletonIterator(timedOut(service, host));
+      } catch (ExecutionException e) {
+         return Iterators.singletonIterator(listingError(service, host, e.getCause()));
+      }
+      List<String> names = Lists.newArrayList();
+      int tweets = 0;
+      for (String name : order.sortedCopy(sizes.keySet())) {
+         if (tweets >= limit) {
+            break;
+         }
+         names.add(name);
+         tweets += sizes.get(name);
+      }
+      return readParts(segments, names, service, host, deadline);
+   }
+
+   /**
+    * Reads the given parts of the segments in order, at most {@code maxFetchesPerProvider} at
+    * once. If a part cannot be read, or is not read by the deadline, its tweets are replaced by a
+    * single row that says so. Tweets stored in more than one part are only returned once.
+    */
+   private Iterator<StoredTweetStatus> readParts(final TweetSegments segments, Iterable<String> parts,
+            final String service, final String host, Deadline deadline) {
+      Iterable<List<StoredTweetStatus>> read = ParallelIterables.transform(parts,
+               new Function<String, List<StoredTweetStatus>>() {
+                  @Override
+                  public List<StoredTweetStatus> apply(String part) {
+                     return readPart(segments, part, service, host);
+                  }
+               }, userExecutor, maxFetchesPerProvider, deadline, new Function<String, List<StoredTweetStatus>>() {
+                  @Override
+                  public List<StoredTweetStatus> apply(String part) {
+                     return ImmutableList.of(timedOut(service, host));
+                  }
+               });
+      final Set<String> seen = Sets.newHashSet();
+      return Iterators.filter(Iterables.concat(read).iterator(), new Predicate<StoredTweetStatus>() {
+         @Override
+         public boolean apply(StoredTweetStatus row) {
+            return row.getId() == null || seen.add(row.getId());
+         }
+      });
+   }
+
+   /**
+    * @return the tweets of the part of a segment, or a single row that says why it could not be
+    *         read
+    */
+   private List<StoredTweetStatus> readPart(TweetSegments segments, String part, String service, String host) {
+      long start = System.nanoTime();
+      try {
+         List<TweetSegments.Tweet> tweets = segments.read(part);
+         String status = (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+         ImmutableList.Builder<StoredTweetStatus> rows = ImmutableList.builder();
+         for (TweetSegments.Tweet tweet : tweets) {
+            rows.add(new StoredTweetStatus(service, host, container, String.valueOf(tweet.getId()), tweet.getFrom(),
+                     tweet.getText(), status));
+         }
+         return rows.build();
+      } catch (Exception e) {
+         return ImmutableList.of(listingError(service, host, e));
+      }
+   }
+
+   /**
+    * Lists a single page of at most {@code limit} tweets in the given service's container,
+    * starting after {@code marker}, or at the beginning of the container if the marker is null.
+    * The next marker of the page is null once the end of the container has been reached.
+    * <p/>
+    * If {@link TweetStoreConstants#PROPERTY_TWEETSTORE_SEGMENTS segments} are enabled, the tweets
+    * stored one per blob are followed by those of the parts of the segments listed in the page.
+    * The parts are named so that they are listed after all the tweets stored one per blob, and
+    * each counts once towards the limit, however many tweets it holds. A tweet stored in more than
+    * one part may be on more than one page.
+    */
+   public PageSet<StoredTweetStatus> apply(String service, String marker, int limit) {
+      return apply(service, marker, limit, Deadline.none());
+   }
+
+   /**
+    * Like {@link #apply(String, String, int)}, but does not wait for the service past the
+    * deadline. If the listing is not complete by then, the page has a single "timed out" row, and
+    * its next marker is the given marker, so that the following page tries again.
+    */
+   public PageSet<StoredTweetStatus> apply(String service, String marker, int limit, Deadline deadline) {
       BlobStoreContext context = contexts.get(service);
       String host = URI.create(context.unwrap().getProviderMetadata().getEndpoint()).getHost();
+      final BlobStore store = context.getBlobStore();
+      final ListContainerOptions options = maxResults(limit).withDetails();
+      if (marker != null) {
+         options.afterMarker(marker);
+      }
+      ListenableFutureTask<PageSet<? extends StorageMetadata>> listing = ListenableFutureTask.create(
+            new Callable<PageSet<? extends StorageMetadata>>() {
+               @Override
+               public PageSet<? extends StorageMetadata> call() {
+                  return store.list(container, options);
+               }
+            });
+      userExecutor.execute(listing);
       try {
+         PageSet<? extends StorageMetadata> blobMetadata = deadline.await(listing);
+         Iterator<StoredTweetStatus> tweets = toStatuses(Iterables.filter(blobMetadata, ContainerListing.IS_TWEET),
+                  store, service, host, null, deadline);
+         if (segments) {
+            List<String> parts = Lists.newArrayList();
+            for (StorageMetadata blob : blobMetadata) {
+               if (TweetSegments.isPart(blob.getName())) {
+                  parts.add(blob.getName());
+               }
+            }
+            tweets = Iterators.concat(tweets, readParts(new TweetSegments(store, container), parts, service, host,
+                     deadline));
+         }
+         return new PageSetImpl<StoredTweetStatus>(ImmutableList.copyOf(tweets), blobMetadata.getNextMarker());
+      } catch (TimeoutException e) {
+         listing.cancel(false);
+         return new PageSetImpl<StoredTweetStatus>(ImmutableList.of(timedOut(service, host)), nullToEmpty(marker));
+      } catch (ExecutionException e) {
+         return new PageSetImpl<StoredTweetStatus>(ImmutableList.of(listingError(service, host, e.getCause())),
+                  null);
+      }
+   }
+
+   /**
+    * Reuses the tweets of the unchanged blobs that were rendered from the last listing of the
+    * service that was read to the end, and reads the others, so that the cost of a listing is in
+    * proportion to the tweets added since. The tweets that can be shown without reading their blobs
+    * are shown in the consumer's thread; see {@link MetadataToStoredTweetStatus#withoutRetrieving}.
+    *
+    * @param listed
+    *           if not null, receives up to {@link #MAX_REUSED_TWEETS} of the tweets rendered, with
+    *           the ETags of their blobs, for the next listing to reuse
+    */
+   private Iterator<StoredTweetStatus> toStatuses(Iterable<? extends StorageMetadata> blobMetadata,
+            BlobStore store, final String service, final String host,
+            @Nullable final Map<String, Rendered> listed, Deadline deadline) {
+      Map<String, Rendered> lastListing = lastListings.get(service);
+      final Map<String, Rendered> previous = (lastListing != null) ? lastListing
+               : ImmutableMap.<String, Rendered> of();
+      final MetadataToStoredTweetStatus toStatus = new MetadataToStoredTweetStatus(store, service, host,
+               container, tweetCache, latencies);
+      // in the order of the blobs
+      return ParallelIterables.transform(blobMetadata, new Function<StorageMetadata, StoredTweetStatus>() {
+         @Override
+         public StoredTweetStatus apply(StorageMetadata input) {
+            String eTag = input.getETag();
+            Rendered rendered = previous.get(input.getName());
+            if (eTag != null && rendered != null && eTag.equals(rendered.eTag)) {
+               return remember(listed, input, new StoredTweetStatus(service, host, container, input.getName(),
+                        rendered.from, rendered.tweet, "reused"));
+            }
+            StoredTweetStatus known = toStatus.withoutRetrieving(input);
+            return (known != null) ? remember(listed, input, known) : null;
+         }
+      }, new Function<StorageMetadata, StoredTweetStatus>() {
+         @Override
+         public StoredTweetStatus apply(StorageMetadata input) {
+            // the tweet is known not to be available without reading the blob
+            StoredTweetStatus row;
+            try {
+               row = toStatus.read(input);
+            } catch (Exception e) {
+               row = toStatus.failed(input, e);
+            }
+            return remember(listed, input, row);
+         }
+      }, userExecutor, maxFetchesPerProvider, deadline, new Function<StorageMetadata, StoredTweetStatus>() {
+         @Override
+         public StoredTweetStatus apply(StorageMetadata input) {
+            return toStatus.timedOut(input);
+         }
+      }).iterator();
+   }
+
+   /**
+    * Adds the tweet to those rendered from the listing, unless it could not be read, or the blob
+    * has no ETag to tell whether it changed, or {@link #MAX_REUSED_TWEETS} have been added already.
+    * Called from the executor's threads as well as the consumer's.
+    */
+   private static StoredTweetStatus remember(@Nullable Map<String, Rendered> listed, StorageMetadata blob,
+            StoredTweetStatus row) {
+      if (listed != null && blob.getETag() != null && !isNullOrEmpty(row.getTweet())
+               && listed.size() < MAX_REUSED_TWEETS) {
+         listed.put(blob.getName(), new Rendered(blob.getETag(), row.getFrom(), row.getTweet()));
+      }
+      return row;
+   }
+
+   /**
+    * Lists the given service's container and retrieves only the {@code limit} tweets with the
+    * highest ids, newest first. The listing is read once, keeping no more than {@code limit} blobs
+    * besides the page being read, however large the container is. If the listing is not complete
+    * by the deadline, the newest of the tweets listed so far are followed by a "timed out" row.
+    */
+   public List<StoredTweetStatus> newest(String service, int limit, Deadline deadline) {
+      checkArgument(limit > 0, "limit must be positive but was %s", limit);
+      BlobStoreContext context = contexts.get(service);
+      String host = URI.create(context.unwrap().getProviderMetadata().getEndpoint()).getHost();
+      BlobStore store = context.getBlobStore();
+      ContainerListing listing = new ContainerListing(store, container, userExecutor, deadline);
+      TweetSegments tweetSegments = new TweetSegments(store, container);
+      ListenableFutureTask<SortedMap<String, Integer>> index = segments ? requestIndex(tweetSegments) : null;
+      List<StorageMetadata> newest = BY_TWEET_ID.greatestOf(listing, limit);
+      List<StoredTweetStatus> tweets = Lists.newArrayList();
+      List<StoredTweetStatus> failures = Lists.newArrayList();
+      // the segments are named after the hour of their tweets, so only the latest are read
+      List<StoredTweetStatus> packed = (index != null) ? ImmutableList.copyOf(readSegments(tweetSegments, index,
+               Ordering.<String> natural().reverse(), limit, service, host, deadline))
+               : ImmutableList.<StoredTweetStatus> of();
+      for (StoredTweetStatus row : Iterables.concat(ImmutableList.copyOf(toStatuses(newest, store, service, host,
+               null, deadline)), packed)) {
+         (row.getId() != null ? tweets : failures).add(row);
+      }
+      ImmutableList.Builder<StoredTweetStatus> statuses = ImmutableList.builder();
+      statuses.addAll(Ordering.natural().greatestOf(tweets, limit));
+      Throwable failure = listing.getFailure();
+      if (failure != null) {
+         statuses.add((failure instanceof TimeoutException) ? timedOut(service, host) : listingError(service, host,
+                  failure));
+      }
+      statuses.addAll(failures);
+      return statuses.build();
+   }
+
+   /**
+    * Lists the containers of all the given services at once and merges the listings by tweet, so
+    * that each tweet is retrieved from only one of the services that hold it rather than from each
+    * of them: the one that has answered fastest recently, unless it is slow to answer this time;
+    * see {@link HedgedRetrieval}. At most {@code maxFetchesPerProvider} tweets are retrieved at
+    * once.
+    * <p/>
+    * The tweets are returned in listing order, followed by a row for each listing that failed or
+    * did not complete by the deadline. Each listing is read a page at a time as the returned
+    * iterable is consumed, which can therefore only be iterated once.
+    * <p/>
+    * If {@link TweetStoreConstants#PROPERTY_TWEETSTORE_SEGMENTS segments} are enabled, the tweets
+    * stored one per blob are followed by those packed into segments. Each part of the segments is
+    * stored under the same name in every service, so it is merged like a tweet, and read only from
+    * the service that holds it that has answered fastest recently.
+    */
+   public Iterable<MergedTweetStatus> merged(final List<String> services, final Deadline deadline) {
+      Map<String, MetadataToStoredTweetStatus> toStatus = Maps.newHashMap();
+      final Map<String, String> hosts = Maps.newHashMap();
+      final Map<String, ContainerListing> listings = Maps.newLinkedHashMap();
+      final Map<String, TweetSegments> tweetSegments = Maps.newHashMap();
+      final Map<String, ListenableFutureTask<SortedMap<String, Integer>>> indexes = Maps.newLinkedHashMap();
+      List<Iterable<Entry<String, StorageMetadata>>> tagged = Lists.newArrayList();
+      for (final String service : services) {
+         BlobStoreContext context = contexts.get(service);
+         String host = URI.create(context.unwrap().getProviderMetadata().getEndpoint()).getHost();
          BlobStore store = context.getBlobStore();
-         Iterable<? extends StorageMetadata> allBlobMetadata = 
-            new ConcatenateContainerLists(store).execute(container, ListContainerOptions.NONE);
-         return Iterables.transform(allBlobMetadata, new MetadataToStoredTweetStatus(store, service, host,
-                  container));
-      } catch (Exception e) {
-         StoredTweetStatus result = new StoredTweetStatus(service, host, container, null, null,
-                  null, e.getMessage());
-         logger.error(e, "Error listing service %s", service);
-         return ImmutableList.of(result);
+         ContainerListing listing = new ContainerListing(store, container, userExecutor, deadline);
+         toStatus.put(service, new MetadataToStoredTweetStatus(store, service, host, container, tweetCache,
+                  latencies));
+         hosts.put(service, host);
+         listings.put(service, listing);
+         if (segments) {
+            TweetSegments serviceSegments = new TweetSegments(store, container);
+            tweetSegments.put(service, serviceSegments);
+            indexes.put(service, requestIndex(serviceSegments));
+         }
+         tagged.add(Iterables.transform(listing,
+                  new Function<StorageMetadata, Entry<String, StorageMetadata>>() {
+                     @Override
+                     public Entry<String, StorageMetadata> apply(StorageMetadata input) {
+                        return Maps.immutableEntry(service, input);
+                     }
+                  }));
       }
+      final Iterator<Map<String, StorageMetadata>> tweets = byTweet(Iterables.mergeSorted(tagged, BY_NAME).iterator());
+      Iterable<Map<String, StorageMetadata>> once = new Iterable<Map<String, StorageMetadata>>() {
+         @Override
+         public Iterator<Map<String, StorageMetadata>> iterator() {
+            return tweets;
+         }
+      };
+      final HedgedRetrieval retrieval = new HedgedRetrieval(services, toStatus, latencies, userExecutor);
+      final Iterator<MergedTweetStatus> retrieved = ParallelIterables.transform(once,
+               new Function<Map<String, StorageMetadata>, MergedTweetStatus>() {
+                  @Override
+                  public MergedTweetStatus apply(Map<String, StorageMetadata> tweet) {
+                     return merge(services, tweet.keySet(), retrieval.apply(tweet));
+                  }
+               }, userExecutor, maxFetchesPerProvider, deadline,
+               new Function<Map<String, StorageMetadata>, MergedTweetStatus>() {
+                  @Override
+                  public MergedTweetStatus apply(Map<String, StorageMetadata> tweet) {
+                     String service = retrieval.rank(tweet).get(0);
+                     return merge(services, tweet.keySet(), retrieval.timedOut(service, tweet));
+                  }
+               }).iterator();
+      return new Iterable<MergedTweetStatus>() {
+         @Override
+         public Iterator<MergedTweetStatus> iterator() {
+            return new AbstractIterator<MergedTweetStatus>() {
+               private final Iterator<Entry<String, ContainerListing>> failures = listings.entrySet().iterator();
+               private Iterator<MergedTweetStatus> packed;
+
+               @Override
+               protected MergedTweetStatus computeNext() {
+                  if (retrieved.hasNext()) {
+                     return retrieved.next();
+                  }
+                  if (packed == null) {
+                     packed = mergeSegments(services, tweetSegments, indexes, hosts, deadline);
+                  }
+                  if (packed.hasNext()) {
+                     return packed.next();
+                  }
+                  // the listings have all ended by now
+                  while (failures.hasNext()) {
+                     Entry<String, ContainerListing> listing = failures.next();
+                     Throwable failure = listing.getValue().getFailure();
+                     if (failure != null) {
+                        String service = listing.getKey();
+                        StoredTweetStatus row = (failure instanceof TimeoutException) ? timedOut(service,
+                                 hosts.get(service)) : listingError(service, hosts.get(service), failure);
+                        return new MergedTweetStatus(null, null, null, ImmutableMap.of(service,
+                                 nullToEmpty(row.getStatus())));
+                     }
+                  }
+                  return endOfData();
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * Groups the blobs listed by all the services, merged by name, into one map per tweet, from
+    * each service that holds the tweet to its blob.
+    */
+   private static Iterator<Map<String, StorageMetadata>> byTweet(Iterator<Entry<String, StorageMetadata>> merged) {
+      final PeekingIterator<Entry<String, StorageMetadata>> blobs = Iterators.peekingIterator(merged);
+      return new AbstractIterator<Map<String, StorageMetadata>>() {
+         @Override
+         protected Map<String, StorageMetadata> computeNext() {
+            if (!blobs.hasNext()) {
+               return endOfData();
+            }
+            Map<String, StorageMetadata> tweet = Maps.newHashMap();
+            String name = blobs.peek().getValue().getName();
+            while (blobs.hasNext() && blobs.peek().getValue().getName().equals(name)) {
+               Entry<String, StorageMetadata> blob = blobs.next();
+               tweet.put(blob.getKey(), blob.getValue());
+            }
+            return tweet;
+         }
+      };
+   }
+
+   /**
+    * Reads the parts of the segments in the indexes of the given services in order, at most
+    * {@code maxFetchesPerProvider} at once, each from the one of the services that hold it that has
+    * answered fastest recently. If a part cannot be read, or is not read by the deadline, its
+    * tweets are replaced by a single row that says so, as are those of an index that cannot be
+    * read. Tweets stored in more than one part are only returned once.
+    */
+   private Iterator<MergedTweetStatus> mergeSegments(final List<String> services,
+            final Map<String, TweetSegments> tweetSegments,
+            Map<String, ListenableFutureTask<SortedMap<String, Integer>>> indexes, final Map<String, String> hosts,
+            Deadline deadline) {
+      // the services that hold each part, oldest segment first
+      final Multimap<String, String> holders = TreeMultimap.create();
+      List<MergedTweetStatus> failures = Lists.newArrayList();
+      for (Entry<String, ListenableFutureTask<SortedMap<String, Integer>>> index : indexes.entrySet()) {
+         String service = index.getKey();
+         try {
+            for (String part : deadline.await(index.getValue()).keySet()) {
+               holders.put(part, service);
+            }
+         } catch (TimeoutException e) {
+            index.getValue().cancel(false);
+            failures.add(merge(services, ImmutableSet.of(service), timedOut(service, hosts.get(service))));
+         } catch (ExecutionException e) {
+            failures.add(merge(services, ImmutableSet.of(service), listingError(service, hosts.get(service),
+                     e.getCause())));
+         }
+      }
+      Iterable<List<MergedTweetStatus>> read = ParallelIterables.transform(holders.keySet(),
+               new Function<String, List<MergedTweetStatus>>() {
+                  @Override
+                  public List<MergedTweetStatus> apply(String part) {
+                     Collection<String> held = holders.get(part);
+                     String service = latencies.fastestFirst(held).get(0);
+                     ImmutableList.Builder<MergedTweetStatus> rows = ImmutableList.builder();
+                     for (StoredTweetStatus row : readPart(tweetSegments.get(service), part, service,
+                              hosts.get(service))) {
+                        rows.add(merge(services, held, row));
+                     }
+                     return rows.build();
+                  }
+               }, userExecutor, maxFetchesPerProvider, deadline, new Function<String, List<MergedTweetStatus>>() {
+                  @Override
+                  public List<MergedTweetStatus> apply(String part) {
+                     Collection<String> held = holders.get(part);
+                     String service = latencies.fastestFirst(held).get(0);
+                     return ImmutableList.of(merge(services, held, timedOut(service, hosts.get(service))));
+                  }
+               });
+      final Set<String> seen = Sets.newHashSet();
+      return Iterators.concat(Iterators.filter(Iterables.concat(read).iterator(), new Predicate<MergedTweetStatus>() {
+         @Override
+         public boolean apply(MergedTweetStatus row) {
+            return row.getId() == null || seen.add(row.getId());
+         }
+      }), failures.iterator());
+   }
+
+   /**
+    * @param holders
+    *           the services that hold the tweet, which are shown as holding it unless the row is
+    *           from them
+    */
+   private static MergedTweetStatus merge(List<String> services, Collection<String> holders,
+            StoredTweetStatus row) {
+      Map<String, String> statuses = Maps.newLinkedHashMap();
+      for (String service : services) {
+         if (service.equals(row.getService())) {
+            statuses.put(service, nullToEmpty(row.getStatus()));
+         } else if (holders.contains(service)) {
+            statuses.put(service, MergedTweetStatus.PRESENT);
+         }
+      }
+      return new MergedTweetStatus(row.getId(), row.getFrom(), row.getTweet(), statuses);
+   }
+
+   /**
+    * @return the hit, miss and eviction counts of the cache of the tweets read
+    */
+   public CacheStats tweetCacheStats() {
+      return tweetCache.stats();
+   }
+
+   private void logCacheStats(String service) {
+      CacheStats stats = tweetCache.stats();
+      logger.info("Listed service %s; tweet cache: %d hits, %d misses, %d evictions", service, stats.hitCount(),
+               stats.missCount(), stats.evictionCount());
+   }
+
+   private StoredTweetStatus timedOut(String service, String host) {
+      logger.warn("Timed out listing service %s", service);
+      return new StoredTweetStatus(service, host, container, null, null, null, "timed out");
+   }
 
+   private StoredTweetStatus listingError(String service, String host, Throwable e) {
+      logger.error(e, "Error listing service %s", service);
+      return new StoredTweetStatus(service, host, container, null, null, null, e.getMessage());
    }
 }
@@ -0,0 +1,59 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.view;
+
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.jclouds.demo.tweetstore.domain.MergedTweetStatus;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests behavior of {@code MergedTweetsTableWriter}
+ *
+ * @author Adrian Cole
+ */
+@Test(groups = "unit")
+public class MergedTweetsTableWriterTest {
+
+   public void testWritesColumnPerService() throws IOException {
+      StringWriter out = new StringWriter();
+      new MergedTweetsTableWriter(out, ImmutableList.of("1", "2", "3")).write(ImmutableList.of(
+               new MergedTweetStatus("1", "frank", "I love beans!", ImmutableMap.of("1", "12ms", "3",
+                        MergedTweetStatus.PRESENT)),
+               new MergedTweetStatus(null, null, null, ImmutableMap.of("2", "timed out"))));
+      String html = out.toString();
+      assertTrue(html.contains("<th>Tweet</th><th>1</th><th>2</th><th>3</th></tr>"), html);
+      assertTrue(html.contains("<tr class=\"odd\"><td>1</td><td>frank</td><td>I love beans!</td>"
+               + "<td>12ms</td><td>missing</td><td>present</td></tr>"), html);
+      assertTrue(html.contains("<tr class=\"even\"><td></td><td></td><td></td>"
+               + "<td></td><td>timed out</td><td></td></tr>"), html);
+   }
+
+   public void testWritesEmptyTable() throws IOException {
+      StringWriter out = new StringWriter();
+      new MergedTweetsTableWriter(out, ImmutableList.of("1", "2")).write(ImmutableList.<MergedTweetStatus> of());
+      assertTrue(out.toString().contains("<td colspan=\"5\">Nothing found to display.</td>"), out.toString());
+   }
+}
@@ -35,6 +35,9 @@ import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.core.MediaType;
 
 import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.demo.tweetstore.cache.ContainerVersions;
+import org.jclouds.demo.tweetstore.cache.CreatedContainers;
+import org.jclouds.demo.tweetstore.cache.StoredTweetIds;
 import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
 import org.jclouds.logging.Logger;
 
@@ -52,16 +55,33 @@ public class ClearTweetsController extends HttpServlet {
 
    private final Map<String, BlobStoreContext> contexts;
    private final String container;
+   private final ContainerVersions versions;
+   private final StoredTweetIds storedIds;
+   private final CreatedContainers createdContainers;
 
    @Resource
    protected Logger logger = Logger.NULL;
 
-   @Inject
    @VisibleForTesting
+   public ClearTweetsController(Map<String, BlobStoreContext> contexts, String container) {
+      this(contexts, container, new ContainerVersions());
+   }
+
+   @VisibleForTesting
+   public ClearTweetsController(Map<String, BlobStoreContext> contexts, String container,
+         ContainerVersions versions) {
+      this(contexts, container, versions, new StoredTweetIds(), new CreatedContainers());
+   }
+
+   @Inject
    public ClearTweetsController(Map<String, BlobStoreContext> contexts,
-         @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER) String container) {
+         @Named(TweetStoreConstants.PROPERTY_TWEETSTORE_CONTAINER) String container, ContainerVersions versions,
+         StoredTweetIds storedIds, CreatedContainers createdContainers) {
       this.container = container;
       this.contexts = contexts;
+      this.versions = versions;
+      this.storedIds = storedIds;
+      this.createdContainers = createdContainers;
    }
 
    @VisibleForTesting
@@ -73,6 +93,11 @@ public class ClearTweetsController extends HttpServlet {
         } catch (Exception e) {
             logger.error(e, "Error clearing tweets in %s/%s", container, context);
         }
+        // the saved ids have been cleared as well
+        storedIds.invalidate(contextName);
+        // in case the container has been removed rather than emptied
+        createdContainers.invalidate(contextName);
+        versions.increment(contextName);
    }
 
    @Override
@@ -18,15 +18,21 @@
  */
 package org.jclouds.demo.tweetstore.functions;
 
+import static org.jclouds.util.Strings2.urlDecode;
+
+import java.util.concurrent.TimeUnit;
+
 import javax.annotation.Resource;
 
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.demo.tweetstore.cache.TweetCache;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
 import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
 import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.jclouds.javax.annotation.Nullable;
 import org.jclouds.logging.Logger;
-import org.jclouds.util.Strings2;
 
 import com.google.common.base.Function;
 
@@ -39,34 +45,101 @@ public class MetadataToStoredTweetStatus implements Function<StorageMetadata, St
    private final BlobStore store;
    private final String service;
    private final String container;
+   private final TweetCache tweetCache;
+   private final Latencies latencies;
 
    @Resource
    protected Logger logger = Logger.NULL;
 
    MetadataToStoredTweetStatus(BlobStore store, String service, String host, String container) {
+      this(store, service, host, container, new TweetCache(0));
+   }
+
+   MetadataToStoredTweetStatus(BlobStore store, String service, String host, String container,
+            TweetCache tweetCache) {
+      this(store, service, host, container, tweetCache, null);
+   }
+
+   /**
+    * @param latencies
+    *           if not null, receives the latency of each blob read
+    */
+   MetadataToStoredTweetStatus(BlobStore store, String service, String host, String container,
+            TweetCache tweetCache, @Nullable Latencies latencies) {
       this.host = host;
       this.store = store;
       this.service = service;
       this.container = container;
+      this.tweetCache = tweetCache;
+      this.latencies = latencies;
    }
 
    public StoredTweetStatus apply(StorageMetadata blobMetadata) {
+      StoredTweetStatus known = withoutRetrieving(blobMetadata);
+      return (known != null) ? known : retrieve(blobMetadata);
+   }
+
+   /**
+    * For tweets that could not be retrieved in time: returns the tweet if it is available without
+    * retrieving the blob, or else a row for it with the "timed out" status.
+    */
+   StoredTweetStatus timedOut(StorageMetadata blobMetadata) {
+      StoredTweetStatus known = withoutRetrieving(blobMetadata);
+      return (known != null) ? known : new StoredTweetStatus(service, host, container, blobMetadata.getName(),
+               blobMetadata.getUserMetadata().get(TweetStoreConstants.SENDER_NAME), "", "timed out");
+   }
+
+   /**
+    * @return the tweet if it is available without retrieving the blob, or else null
+    */
+   StoredTweetStatus withoutRetrieving(StorageMetadata blobMetadata) {
       String id = blobMetadata.getName();
-      String status;
-      String from;
-      String tweet;
+      String encodedTweet = blobMetadata.getUserMetadata().get(TweetStoreConstants.TWEET_TEXT);
+      if (encodedTweet != null) {
+         // the tweet was stored alongside the sender, so there is no need to retrieve the blob
+         return new StoredTweetStatus(service, host, container, id,
+                  blobMetadata.getUserMetadata().get(TweetStoreConstants.SENDER_NAME), urlDecode(encodedTweet),
+                  "listed");
+      }
+      TweetCache.Tweet cached = tweetCache.getIfPresent(service, container, id, blobMetadata.getETag());
+      if (cached != null) {
+         return new StoredTweetStatus(service, host, container, id, cached.getFrom(), cached.getText(),
+                  "cached");
+      }
+      return null;
+   }
+
+   private StoredTweetStatus retrieve(StorageMetadata blobMetadata) {
       try {
-         long start = System.currentTimeMillis();
-         Blob blob = store.getBlob(container, id);
-         status = ((System.currentTimeMillis() - start) + "ms");
-         from = blob.getMetadata().getUserMetadata().get(TweetStoreConstants.SENDER_NAME);
-         tweet = Strings2.toStringAndClose(blob.getPayload().openStream());
+         return read(blobMetadata);
       } catch (Exception e) {
-         logger.error(e, "Error listing container %s//%s/%s", service, container, id);
-         status = (e.getMessage());
-         tweet = "";
-         from = "";
+         return failed(blobMetadata, e);
+      }
+   }
+
+   /**
+    * Reads the blob, whether or not the tweet is available without reading it.
+    */
+   StoredTweetStatus read(StorageMetadata blobMetadata) throws Exception {
+      String id = blobMetadata.getName();
+      long start = System.nanoTime();
+      Blob blob = store.getBlob(container, id);
+      String status = (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+      String from = blob.getMetadata().getUserMetadata().get(TweetStoreConstants.SENDER_NAME);
+      String tweet = TweetCodec.getText(blob);
+      if (latencies != null) {
+         latencies.record(service, System.nanoTime() - start);
       }
+      tweetCache.put(service, container, id, blobMetadata.getETag(), new TweetCache.Tweet(from, tweet));
       return new StoredTweetStatus(service, host, container, id, from, tweet, status);
    }
+
+   /**
+    * @return the row of a tweet whose blob could not be read
+    */
+   StoredTweetStatus failed(StorageMetadata blobMetadata, Throwable e) {
+      String id = blobMetadata.getName();
+      logger.error(e, "Error listing container %s//%s/%s", service, container, id);
+      return new StoredTweetStatus(service, host, container, id, "", "", e.getMessage());
+   }
 }
@@ -0,0 +1,96 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.controller;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.TransientApiMetadata;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.demo.tweetstore.functions.ServiceToStoredTweetStatuses;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.testng.annotations.Test;
+import org.testng.collections.Maps;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests behavior of {@code TweetsJsonController}
+ *
+ * @author Adrian Cole
+ */
+@Test(groups = "unit")
+public class TweetsJsonControllerTest {
+
+   Map<String, BlobStoreContext> createServices(String container) throws InterruptedException,
+            ExecutionException {
+      Map<String, BlobStoreContext> services = Maps.newHashMap();
+      TransientApiMetadata transientApiMetadata = TransientApiMetadata.builder().build();
+      for (String name : new String[] { "1", "2" }) {
+         BlobStoreContext context = ContextBuilder.newBuilder(transientApiMetadata).build(BlobStoreContext.class);
+         context.getBlobStore().createContainerInLocation(null, container);
+         Blob blob = context.getBlobStore().blobBuilder("1").build();
+         blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+         blob.setPayload("I love \"beans\"!");
+         context.getBlobStore().putBlob(container, blob);
+         services.put(name, context);
+      }
+      return services;
+   }
+
+   public void testWriteTweets() throws IOException, InterruptedException, ExecutionException {
+      String container = TweetsJsonControllerTest.class.getName() + "#container";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+
+      ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container);
+      TweetsJsonController controller = new TweetsJsonController(contexts, function);
+      StringWriter out = new StringWriter();
+      controller.writeTweets(ImmutableSet.of("1", "2"), out);
+
+      JsonArray tweets = new JsonParser().parse(out.toString()).getAsJsonArray();
+      assertEquals(tweets.size(), 2);
+      for (int i = 0; i < tweets.size(); i++) {
+         JsonObject tweet = tweets.get(i).getAsJsonObject();
+         assertEquals(tweet.get("service").getAsString(), String.valueOf(i + 1));
+         assertEquals(tweet.get("host").getAsString(), "localhost");
+         assertEquals(tweet.get("container").getAsString(), container);
+         assertEquals(tweet.get("id").getAsString(), "1");
+         assertEquals(tweet.get("from").getAsString(), "frank");
+         assertEquals(tweet.get("tweet").getAsString(), "I love \"beans\"!");
+      }
+   }
+
+   public void testWriteNoTweets() throws IOException {
+      Map<String, BlobStoreContext> contexts = Maps.newHashMap();
+      TweetsJsonController controller = new TweetsJsonController(contexts,
+               new ServiceToStoredTweetStatuses(contexts, "container"));
+      StringWriter out = new StringWriter();
+      controller.writeTweets(ImmutableSet.<String> of(), out);
+      assertEquals(out.toString(), "[]");
+   }
+}
@@ -0,0 +1,250 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.functions;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.blobstore.domain.MutableBlobMetadata;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
+import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests behavior of {@code HedgedRetrieval}
+ * 
+ * @author Adrian Cole
+ */
+@Test(groups = "unit")
+public class HedgedRetrievalTest {
+   private static final List<String> SERVICES = ImmutableList.of("1", "2");
+
+   /**
+    * Answers with the tweet returned by the given callable instead of reading a blob.
+    */
+   private static class FakeStatus extends MetadataToStoredTweetStatus {
+      private final String service;
+      private final Callable<String> tweet;
+      private final AtomicInteger reads = new AtomicInteger();
+
+      FakeStatus(String service, Callable<String> tweet) {
+         super(null, service, "localhost", "container");
+         this.service = service;
+         this.tweet = tweet;
+      }
+
+      @Override
+      StoredTweetStatus read(StorageMetadata blobMetadata) throws Exception {
+         reads.incrementAndGet();
+         return new StoredTweetStatus(service, "localhost", "container", blobMetadata.getName(), "frank",
+                  tweet.call(), "1ms");
+      }
+   }
+
+   private static Callable<String> answer(final String tweet) {
+      return new Callable<String>() {
+         @Override
+         public String call() {
+            return tweet;
+         }
+      };
+   }
+
+   private static Callable<String> fail(final String message) {
+      return new Callable<String>() {
+         @Override
+         public String call() {
+            throw new IllegalStateException(message);
+         }
+      };
+   }
+
+   private static Map<String, StorageMetadata> tweet(String name) {
+      MutableBlobMetadata blobMetadata = new MutableBlobMetadataImpl();
+      blobMetadata.setName(name);
+      return ImmutableMap.<String, StorageMetadata> of("1", blobMetadata, "2", blobMetadata);
+   }
+
+   private static StoredTweetStatus retrieve(Latencies latencies, MetadataToStoredTweetStatus first,
+            MetadataToStoredTweetStatus second) {
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         return new HedgedRetrieval(SERVICES, ImmutableMap.of("1", first, "2", second), latencies, executor)
+                  .apply(tweet("1"));
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   public void testAsksTheFastestServiceOnly() {
+      Latencies latencies = new Latencies();
+      // slow enough for the fastest to answer before it is hedged
+      latencies.record("1", TimeUnit.SECONDS.toNanos(10));
+      latencies.record("2", TimeUnit.SECONDS.toNanos(1));
+      FakeStatus first = new FakeStatus("1", answer("I love beans!"));
+      FakeStatus second = new FakeStatus("2", answer("I love beans!"));
+      StoredTweetStatus row = retrieve(latencies, first, second);
+      assertEquals(row.getService(), "2");
+      assertEquals(first.reads.get(), 0);
+      assertEquals(second.reads.get(), 1);
+   }
+
+   public void testHedgesPastThe95thPercentile() {
+      Latencies latencies = new Latencies();
+      latencies.record("1", TimeUnit.MILLISECONDS.toNanos(10));
+      latencies.record("2", TimeUnit.MILLISECONDS.toNanos(20));
+      final CountDownLatch stuck = new CountDownLatch(1);
+      FakeStatus first = new FakeStatus("1", new Callable<String>() {
+         @Override
+         public String call() throws InterruptedException {
+            stuck.await();
+            return "I love beans!";
+         }
+      });
+      FakeStatus second = new FakeStatus("2", answer("I love beans!"));
+      try {
+         StoredTweetStatus row = retrieve(latencies, first, second);
+         assertEquals(row.getService(), "2");
+         assertEquals(row.getTweet(), "I love beans!");
+      } finally {
+         stuck.countDown();
+      }
+   }
+
+   public void testReturnsTheFirstAnswerWhileTheHedgeIsRead() {
+      Latencies latencies = new Latencies();
+      latencies.record("1", TimeUnit.MILLISECONDS.toNanos(10));
+      latencies.record("2", TimeUnit.MILLISECONDS.toNanos(20));
+      final CountDownLatch hedged = new CountDownLatch(1);
+      final CountDownLatch stuck = new CountDownLatch(1);
+      // answers once it has been hedged
+      FakeStatus first = new FakeStatus("1", new Callable<String>() {
+         @Override
+         public String call() throws InterruptedException {
+            hedged.await();
+            return "I love beans!";
+         }
+      });
+      FakeStatus second = new FakeStatus("2", new Callable<String>() {
+         @Override
+         public String call() throws InterruptedException {
+            hedged.countDown();
+            stuck.await(10, TimeUnit.SECONDS);
+            return "I love beans!";
+         }
+      });
+      // both threads are free as soon as a request is sent
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>());
+      executor.prestartAllCoreThreads();
+      try {
+         StoredTweetStatus row = new HedgedRetrieval(SERVICES, ImmutableMap.<String, MetadataToStoredTweetStatus> of(
+                  "1", first, "2", second), latencies, executor).apply(tweet("1"));
+         assertEquals(row.getService(), "1");
+         assertEquals(second.reads.get(), 1);
+      } finally {
+         stuck.countDown();
+         executor.shutdownNow();
+      }
+   }
+
+   public void testHedgesEvenIfNoThreadIsFree() {
+      Latencies latencies = new Latencies();
+      latencies.record("1", TimeUnit.MILLISECONDS.toNanos(10));
+      latencies.record("2", TimeUnit.MILLISECONDS.toNanos(20));
+      final CountDownLatch stuck = new CountDownLatch(1);
+      FakeStatus first = new FakeStatus("1", new Callable<String>() {
+         @Override
+         public String call() throws InterruptedException {
+            stuck.await();
+            return "I love beans!";
+         }
+      });
+      FakeStatus second = new FakeStatus("2", answer("I love beans!"));
+      // the only thread is taken by the first request
+      ExecutorService executor = Executors.newFixedThreadPool(1);
+      try {
+         StoredTweetStatus row = new HedgedRetrieval(SERVICES, ImmutableMap.<String, MetadataToStoredTweetStatus> of(
+                  "1", first, "2", second), latencies, executor).apply(tweet("1"));
+         assertEquals(row.getService(), "2");
+      } finally {
+         stuck.countDown();
+         executor.shutdownNow();
+      }
+   }
+
+   public void testHedgesEvenIfTheExecutorRejectsTheHedge() {
+      Latencies latencies = new Latencies();
+      latencies.record("1", TimeUnit.MILLISECONDS.toNanos(10));
+      latencies.record("2", TimeUnit.MILLISECONDS.toNanos(20));
+      final CountDownLatch stuck = new CountDownLatch(1);
+      FakeStatus first = new FakeStatus("1", new Callable<String>() {
+         @Override
+         public String call() throws InterruptedException {
+            stuck.await();
+            return "I love beans!";
+         }
+      });
+      FakeStatus second = new FakeStatus("2", answer("I love beans!"));
+      // rejects any request while its only thread is taken
+      ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+               new SynchronousQueue<Runnable>());
+      try {
+         StoredTweetStatus row = new HedgedRetrieval(SERVICES, ImmutableMap.<String, MetadataToStoredTweetStatus> of(
+                  "1", first, "2", second), latencies, executor).apply(tweet("1"));
+         assertEquals(row.getService(), "2");
+      } finally {
+         stuck.countDown();
+         executor.shutdownNow();
+      }
+   }
+
+   public void testFallsOverToTheNextService() {
+      Latencies latencies = new Latencies();
+      FakeStatus first = new FakeStatus("1", fail("down"));
+      FakeStatus second = new FakeStatus("2", answer("I love beans!"));
+      StoredTweetStatus row = retrieve(latencies, first, second);
+      assertEquals(row.getService(), "2");
+      assertEquals(first.reads.get(), 1);
+   }
+
+   public void testReportsTheLastFailure() {
+      Latencies latencies = new Latencies();
+      StoredTweetStatus row = retrieve(latencies, new FakeStatus("1", fail("down")), new FakeStatus("2",
+               fail("also down")));
+      assertEquals(row.getService(), "2");
+      assertEquals(row.getStatus(), "also down");
+   }
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Singleton;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Counts the changes this application instance has made to the tweet container of each blobstore,
+ * so that its views of the containers can tell when they are out of date. Changes made by other
+ * instances are not counted; see {@link ContainerCheckpoints} for a version they all agree on.
+ */
+@Singleton
+public class ContainerVersions implements Supplier<Map<String, Long>> {
+   private final ConcurrentMap<String, AtomicLong> versions = Maps.newConcurrentMap();
+
+   /**
+    * Records a change to the tweet container of the given blobstore.
+    */
+   public void increment(String contextName) {
+      AtomicLong version = versions.get(contextName);
+      if (version == null) {
+         AtomicLong newVersion = new AtomicLong();
+         version = versions.putIfAbsent(contextName, newVersion);
+         if (version == null) {
+            version = newVersion;
+         }
+      }
+      version.incrementAndGet();
+   }
+
+   public long get(String contextName) {
+      AtomicLong version = versions.get(contextName);
+      return version == null ? 0 : version.get();
+   }
+
+   /**
+    * @return the current version of the tweet container of each blobstore that has been changed
+    */
+   @Override
+   public Map<String, Long> get() {
+      ImmutableSortedMap.Builder<String, Long> builder = ImmutableSortedMap.naturalOrder();
+      for (Entry<String, AtomicLong> version : versions.entrySet()) {
+         builder.put(version.getKey(), version.getValue().get());
+      }
+      return builder.build();
+   }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+/**
+ * Parallel counterpart of {@link com.google.common.collect.Iterables#transform}: the function is
+ * applied on the given executor, with at most {@code maxInFlight} elements being transformed at
+ * any one time, and the results are returned in the order of the source.
+ * <p/>
+ * The consumer never blocks on a task that is still waiting in the executor's queue; it runs such
+ * tasks itself. Callers that are themselves running on a (bounded) executor can therefore safely
+ * submit to the same executor.
+ */
+public class ParallelIterables {
+
+   public static <F, T> Iterable<T> transform(Iterable<F> fromIterable,
+         Function<? super F, ? extends T> function, Executor executor, int maxInFlight) {
+      // nothing ever times out
+      return transform(fromIterable, function, executor, maxInFlight, Deadline.none(), function);
+   }
+
+   /**
+    * Like {@link #transform(Iterable, Function, Executor, int)}, but stops waiting for the function
+    * once the deadline has expired. From then on, the elements whose result is not available yet
+    * are transformed with {@code timedOut} in the consumer's thread instead, and elements not yet
+    * submitted are never passed to the function. The consumer does not run tasks itself, so a
+    * saturated executor leads to time outs rather than waiting past the deadline.
+    */
+   public static <F, T> Iterable<T> transform(Iterable<F> fromIterable,
+         Function<? super F, ? extends T> function, Executor executor, int maxInFlight, Deadline deadline,
+         Function<? super F, ? extends T> timedOut) {
+      return transform(fromIterable, Functions.<T> constant(null), function, executor, maxInFlight, deadline,
+            timedOut);
+   }
+
+   /**
+    * Like {@link #transform(Iterable, Function, Executor, int, Deadline, Function)}, but the
+    * elements for which {@code immediate} returns a result are transformed to it in the consumer's
+    * thread, without a task, even past the deadline. Only the others are passed to the function.
+    */
+   public static <F, T> Iterable<T> transform(final Iterable<F> fromIterable,
+         final Function<? super F, ? extends T> immediate, final Function<? super F, ? extends T> function,
+         final Executor executor, final int maxInFlight, final Deadline deadline,
+         final Function<? super F, ? extends T> timedOut) {
+      checkNotNull(fromIterable, "fromIterable");
+      checkNotNull(immediate, "immediate");
+      checkNotNull(function, "function");
+      checkNotNull(executor, "executor");
+      checkArgument(maxInFlight > 0, "maxInFlight must be positive but was %s", maxInFlight);
+      checkNotNull(deadline, "deadline");
+      checkNotNull(timedOut, "timedOut");
+      return new FluentIterable<T>() {
+         @Override
+         public Iterator<T> iterator() {
+            return new TransformingIterator<F, T>(fromIterable.iterator(), immediate, function, executor,
+                  maxInFlight, deadline, timedOut);
+         }
+      };
+   }
+
+   private static class Pending<F, T> {
+      private final F input;
+      private final ListenableFutureTask<T> task;
+
+      private Pending(F input, ListenableFutureTask<T> task) {
+         this.input = input;
+         this.task = task;
+      }
+   }
+
+   private static class TransformingIterator<F, T> extends AbstractIterator<T> {
+      private final Iterator<F> from;
+      private final Function<? super F, ? extends T> immediate;
+      private final Function<? super F, ? extends T> function;
+      private final Executor executor;
+      private final int maxInFlight;
+      private final Deadline deadline;
+      private final Function<? super F, ? extends T> timedOut;
+      private final Queue<Pending<F, T>> inFlight = Queues.newArrayDeque();
+
+      private TransformingIterator(Iterator<F> from, Function<? super F, ? extends T> immediate,
+            Function<? super F, ? extends T> function, Executor executor, int maxInFlight, Deadline deadline,
+            Function<? super F, ? extends T> timedOut) {
+         this.from = from;
+         this.immediate = immediate;
+         this.function = function;
+         this.executor = executor;
+         this.maxInFlight = maxInFlight;
+         this.deadline = deadline;
+         this.timedOut = timedOut;
+      }
+
+      @Override
+      protected T computeNext() {
+         while (inFlight.size() < maxInFlight && from.hasNext() && !deadline.isExpired()) {
+            final F input = from.next();
+            final T result = immediate.apply(input);
+            ListenableFutureTask<T> task = ListenableFutureTask.create(new Callable<T>() {
+               @Override
+               public T call() {
+                  return (result != null) ? result : function.apply(input);
+               }
+            });
+            inFlight.add(new Pending<F, T>(input, task));
+            if (result != null) {
+               // keeps its place in the order of the source
+               task.run();
+            } else {
+               executor.execute(task);
+            }
+         }
+         Pending<F, T> next = inFlight.poll();
+         if (next == null) {
+            // nothing is submitted once the deadline has expired
+            if (!from.hasNext()) {
+               return endOfData();
+            }
+            F input = from.next();
+            T result = immediate.apply(input);
+            return (result != null) ? result : timedOut.apply(input);
+         }
+         try {
+            return deadline.await(next.task);
+         } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+         } catch (TimeoutException e) {
+            next.task.cancel(false);
+            return timedOut.apply(next.input);
+         }
+      }
+   }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+
+/**
+ * Memoizing supplier that keeps serving its last value while a new one is being loaded. Once the
+ * value is older than the maximum age, or the version it was loaded at has changed, the next call
+ * starts a reload on the given executor and returns immediately. Only the very first call waits
+ * for a value to be loaded.
+ * <p/>
+ * With a same-thread executor, a stale value is reloaded before being returned instead.
+ */
+public class RefreshingSupplier<T> implements Supplier<T> {
+
+   /**
+    * A value together with the version it was loaded at.
+    */
+   public static class Snapshot<T> {
+      private final T value;
+      private final Object version;
+      private final long loadedAtNanos;
+
+      private Snapshot(T value, Object version, long loadedAtNanos) {
+         this.value = value;
+         this.version = version;
+         this.loadedAtNanos = loadedAtNanos;
+      }
+
+      public T getValue() {
+         return value;
+      }
+
+      /**
+       * @return the version read just before the value was loaded
+       */
+      public Object getVersion() {
+         return version;
+      }
+   }
+
+   private final Supplier<T> delegate;
+   private final Supplier<?> version;
+   private final Executor executor;
+   private final long maxAgeNanos;
+   private final AtomicBoolean refreshing = new AtomicBoolean();
+   private volatile Snapshot<T> snapshot;
+
+   public RefreshingSupplier(Supplier<T> delegate, Supplier<?> version, Executor executor, long maxAge,
+         TimeUnit unit) {
+      this.delegate = checkNotNull(delegate, "delegate");
+      this.version = checkNotNull(version, "version");
+      this.executor = checkNotNull(executor, "executor");
+      checkArgument(maxAge > 0, "maxAge must be positive but was %s", maxAge);
+      this.maxAgeNanos = unit.toNanos(maxAge);
+   }
+
+   @Override
+   public T get() {
+      return getSnapshot().getValue();
+   }
+
+   /**
+    * Like {@link #get}, but also returns the version the value was loaded at, which may be older
+    * than the current version while a reload is in progress.
+    */
+   public Snapshot<T> getSnapshot() {
+      Snapshot<T> current = snapshot;
+      if (current == null) {
+         synchronized (this) {
+            if (snapshot == null) {
+               snapshot = load();
+            }
+            return snapshot;
+         }
+      }
+      if (isStale(current) && refreshing.compareAndSet(false, true)) {
+         try {
+            executor.execute(new Runnable() {
+               @Override
+               public void run() {
+                  try {
+                     snapshot = load();
+                  } finally {
+                     refreshing.set(false);
+                  }
+               }
+            });
+         } catch (RejectedExecutionException e) {
+            refreshing.set(false);
+            throw e;
+         }
+      }
+      // refreshed already if the executor ran the reload in this thread
+      return snapshot;
+   }
+
+   /**
+    * @return true once a value has been loaded, after which {@link #get} no longer waits for one
+    */
+   public boolean isLoaded() {
+      return snapshot != null;
+   }
+
+   private boolean isStale(Snapshot<T> current) {
+      return System.nanoTime() - current.loadedAtNanos > maxAgeNanos
+            || !Objects.equal(current.version, version.get());
+   }
+
+   private Snapshot<T> load() {
+      // read the version first so that changes made during the load mark the result as stale
+      Object loadedVersion = version.get();
+      return new Snapshot<T>(delegate.get(), loadedVersion, System.nanoTime());
+   }
+}
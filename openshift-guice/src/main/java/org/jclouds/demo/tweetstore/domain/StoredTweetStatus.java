@@ -20,6 +20,11 @@ package org.jclouds.demo.tweetstore.domain;
 
 import java.io.Serializable;
 
+import com.google.common.base.Objects;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Longs;
+
 /**
  * 
  * @author Adrian Cole
@@ -27,7 +32,14 @@ import java.io.Serializable;
 public class StoredTweetStatus implements Comparable<StoredTweetStatus>, Serializable {
 
    /** The serialVersionUID */
-   private static final long serialVersionUID = -3257496189689220018L;
+   private static final long serialVersionUID = 5394063213736315262L;
+   /**
+    * The tweet id of rows whose id is missing, such as listing errors, or not a number.
+    */
+   public static final long NO_TWEET_ID = Long.MIN_VALUE;
+   // compareTo is called for every comparison of a sort, so the ordering is only created once
+   private static final Ordering<String> NULLS_FIRST = Ordering.<String> natural().nullsFirst();
+
    private final String service;
    private final String host;
    private final String container;
@@ -35,6 +47,9 @@ public class StoredTweetStatus implements Comparable<StoredTweetStatus>, Seriali
    private final String from;
    private final String tweet;
    private final String status;
+   private final long tweetId;
+   // the fields never change, so the hash is only computed once
+   private final int hashCode;
 
    @Override
    public String toString() {
@@ -52,22 +67,16 @@ public class StoredTweetStatus implements Comparable<StoredTweetStatus>, Seriali
       this.from = from;
       this.tweet = tweet;
       this.status = status;
+      Long parsed = (id == null) ? null : Longs.tryParse(id);
+      this.tweetId = (parsed == null) ? NO_TWEET_ID : parsed;
+      this.hashCode = Objects.hashCode(container, from, host, id, service, tweet);
    }
 
    @Override
    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + ((container == null) ? 0 : container.hashCode());
-      result = prime * result + ((from == null) ? 0 : from.hashCode());
-      result = prime * result + ((host == null) ? 0 : host.hashCode());
-      result = prime * result + ((id == null) ? 0 : id.hashCode());
-      result = prime * result + ((service == null) ? 0 : service.hashCode());
-      result = prime * result + ((tweet == null) ? 0 : tweet.hashCode());
-      return result;
+      return hashCode;
    }
 
-
    @Override
    public boolean equals(Object obj) {
       if (this == obj)
@@ -77,40 +86,14 @@ public class StoredTweetStatus implements Comparable<StoredTweetStatus>, Seriali
       if (getClass() != obj.getClass())
          return false;
       StoredTweetStatus other = (StoredTweetStatus) obj;
-      if (container == null) {
-         if (other.container != null)
-            return false;
-      } else if (!container.equals(other.container))
-         return false;
-      if (from == null) {
-         if (other.from != null)
-            return false;
-      } else if (!from.equals(other.from))
-         return false;
-      if (host == null) {
-         if (other.host != null)
-            return false;
-      } else if (!host.equals(other.host))
-         return false;
-      if (id == null) {
-         if (other.id != null)
-            return false;
-      } else if (!id.equals(other.id))
+      // cheap checks first
+      if (tweetId != other.tweetId || hashCode != other.hashCode)
          return false;
-      if (service == null) {
-         if (other.service != null)
-            return false;
-      } else if (!service.equals(other.service))
-         return false;
-      if (tweet == null) {
-         if (other.tweet != null)
-            return false;
-      } else if (!tweet.equals(other.tweet))
-         return false;
-      return true;
+      return Objects.equal(id, other.id) && Objects.equal(service, other.service)
+               && Objects.equal(container, other.container) && Objects.equal(host, other.host)
+               && Objects.equal(from, other.from) && Objects.equal(tweet, other.tweet);
    }
 
-
    public String getService() {
       return service;
    }
@@ -135,15 +118,26 @@ public class StoredTweetStatus implements Comparable<StoredTweetStatus>, Seriali
       return status;
    }
 
+   /**
+    * Orders by tweet id as a number, so that "9" comes before "10", then by blobstore. Rows
+    * without a tweet id come first.
+    */
    public int compareTo(StoredTweetStatus o) {
-      if (id == null)
-         return -1;
-      return (int) ((this == o) ? 0 : id.compareTo(o.id));
+      if (this == o)
+         return 0;
+      return ComparisonChain.start().compare(tweetId, o.tweetId).compare(id, o.id, NULLS_FIRST)
+               .compare(service, o.service, NULLS_FIRST).result();
    }
 
-
    public String getId() {
       return id;
    }
 
+   /**
+    * @return the id as a number, or {@link #NO_TWEET_ID} if it is missing or not a number
+    */
+   public long getTweetId() {
+      return tweetId;
+   }
+
 }
@@ -0,0 +1,169 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.filter;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.google.common.net.HttpHeaders;
+
+/**
+ * Compresses the body written to the response with gzip. The compressed bytes are sent in the
+ * response, with a Content-Encoding header, unless another destination is given. Flushing the
+ * response flushes what has been compressed so far, so that streamed responses still reach the
+ * client as they are written.
+ * 
+ * @author Adrian Cole
+ */
+public class GzipResponseWrapper extends HttpServletResponseWrapper {
+   private final OutputStream destination;
+   private GZIPOutputStream gzip;
+   private ServletOutputStream outputStream;
+   private PrintWriter writer;
+   // set when the servlet sends its own encoding of the body, which is then passed through
+   private boolean encoded;
+
+   public GzipResponseWrapper(HttpServletResponse response) {
+      this(response, null);
+   }
+
+   /**
+    * @param destination
+    *           receives the compressed body instead of the response, which is left untouched
+    */
+   public GzipResponseWrapper(HttpServletResponse response, OutputStream destination) {
+      super(response);
+      this.destination = destination;
+   }
+
+   @Override
+   public void setHeader(String name, String value) {
+      encoded |= isContentEncoding(name);
+      super.setHeader(name, value);
+   }
+
+   @Override
+   public void addHeader(String name, String value) {
+      encoded |= isContentEncoding(name);
+      super.addHeader(name, value);
+   }
+
+   @Override
+   public void setContentLength(int len) {
+      // otherwise the length of the uncompressed body
+      if (encoded) {
+         super.setContentLength(len);
+      }
+   }
+
+   @Override
+   public ServletOutputStream getOutputStream() throws IOException {
+      if (encoded) {
+         return super.getOutputStream();
+      }
+      checkState(writer == null, "getWriter() has already been called");
+      if (outputStream == null) {
+         outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+               gzip().write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+               gzip().write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+               gzip().flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+               finish();
+            }
+         };
+      }
+      return outputStream;
+   }
+
+   @Override
+   public PrintWriter getWriter() throws IOException {
+      if (encoded) {
+         return super.getWriter();
+      }
+      if (writer == null) {
+         checkState(outputStream == null, "getOutputStream() has already been called");
+         writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+      }
+      return writer;
+   }
+
+   @Override
+   public void flushBuffer() throws IOException {
+      if (writer != null) {
+         writer.flush();
+      } else if (gzip != null) {
+         gzip.flush();
+      }
+      if (destination == null) {
+         super.flushBuffer();
+      }
+   }
+
+   /**
+    * Writes the end of the compressed body. Nothing may be written to the response afterwards.
+    */
+   public void finish() throws IOException {
+      if (writer != null) {
+         writer.flush();
+      }
+      if (gzip != null) {
+         gzip.finish();
+         gzip.flush();
+      }
+   }
+
+   private GZIPOutputStream gzip() throws IOException {
+      if (gzip == null) {
+         OutputStream out = destination;
+         if (out == null) {
+            super.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            out = super.getOutputStream();
+         }
+         // flushing sends what has been compressed so far
+         gzip = new GZIPOutputStream(out, true);
+      }
+      return gzip;
+   }
+
+   private static boolean isContentEncoding(String name) {
+      return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name);
+   }
+}
@@ -0,0 +1,217 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.functions;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.prefix;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TimeZone;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Packs many tweets into each blob, so that reading a container costs a request per segment
+ * rather than one per tweet. The tweets are grouped by the hour in which they were sent, into
+ * segments of newline-delimited JSON records.
+ * <p/>
+ * Segments are never modified, so that any number of application instances can add tweets to the
+ * same container without coordinating: each batch of tweets of an hour is written to a part of
+ * its own, named after the hour, the number of its tweets and a hash of their ids. The index is
+ * read from the listing of the parts, and a tweet that was stored in more than one batch is in
+ * more than one part.
+ */
+public class TweetSegments {
+
+   /**
+    * A tweet as it is stored in a segment.
+    */
+   public static class Tweet {
+      private final long id;
+      private final String from;
+      private final String text;
+
+      public Tweet(long id, String from, String text) {
+         this.id = id;
+         this.from = from;
+         this.text = checkNotNull(text, "text");
+      }
+
+      public long getId() {
+         return id;
+      }
+
+      public String getFrom() {
+         return from;
+      }
+
+      public String getText() {
+         return text;
+      }
+   }
+
+   private static final String NDJSON = "application/x-ndjson";
+
+   private final BlobStore store;
+   private final String container;
+   private final TweetCodec codec;
+
+   public TweetSegments(BlobStore store, String container) {
+      this(store, container, TweetCodec.none());
+   }
+
+   /**
+    * @param codec
+    *           compresses the segments written; those read are decompressed whichever way they
+    *           were written
+    */
+   public TweetSegments(BlobStore store, String container, TweetCodec codec) {
+      this.store = store;
+      this.container = container;
+      this.codec = codec;
+   }
+
+   /**
+    * @return the name of the segment of the tweets sent in the same hour, in UTC, as {@code sent};
+    *         the names sort in the order of the hours
+    */
+   public static String segmentOf(Date sent) {
+      SimpleDateFormat hour = new SimpleDateFormat("yyyyMMddHH");
+      hour.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return TweetStoreConstants.SEGMENT_PREFIX + hour.format(sent);
+   }
+
+   /**
+    * @return the number of tweets in each part of the segments, oldest segment first; empty if no
+    *         tweets have been stored in segments
+    */
+   public SortedMap<String, Integer> index() {
+      ImmutableSortedMap.Builder<String, Integer> index = ImmutableSortedMap.naturalOrder();
+      String marker = null;
+      do {
+         ListContainerOptions options = prefix(TweetStoreConstants.SEGMENT_PREFIX);
+         if (marker != null) {
+            options.afterMarker(marker);
+         }
+         PageSet<? extends StorageMetadata> page = store.list(container, options);
+         for (StorageMetadata part : page) {
+            Integer size = sizeOf(part.getName());
+            if (size != null) {
+               index.put(part.getName(), size);
+            }
+         }
+         marker = page.getNextMarker();
+      } while (marker != null);
+      return index.build();
+   }
+
+   /**
+    * @return true if the blob of the given name is a part of a segment
+    */
+   public static boolean isPart(String name) {
+      return name.startsWith(TweetStoreConstants.SEGMENT_PREFIX) && sizeOf(name) != null;
+   }
+
+   /**
+    * @return the number of tweets in the part, as recorded in its name, or null if it is not a part
+    */
+   private static Integer sizeOf(String part) {
+      List<String> fields = Splitter.on('-').splitToList(
+            part.substring(TweetStoreConstants.SEGMENT_PREFIX.length()));
+      return (fields.size() == 3) ? Ints.tryParse(fields.get(1)) : null;
+   }
+
+   /**
+    * @return the tweets of the part of a segment, oldest first; empty if there is no such part
+    */
+   public List<Tweet> read(String part) throws IOException {
+      Blob blob = store.getBlob(container, part);
+      if (blob == null) {
+         return ImmutableList.of();
+      }
+      ImmutableList.Builder<Tweet> tweets = ImmutableList.builder();
+      try {
+         for (String line : Splitter.on('\n').omitEmptyStrings().split(
+               TweetCodec.getText(blob))) {
+            JsonObject tweet = parse(line);
+            JsonElement from = tweet.get("from");
+            tweets.add(new Tweet(tweet.get("id").getAsLong(), (from == null || from.isJsonNull()) ? null
+                  : from.getAsString(), tweet.get("tweet").getAsString()));
+         }
+      } catch (RuntimeException e) {
+         throw new IOException("invalid segment " + part, e);
+      }
+      return tweets.build();
+   }
+
+   /**
+    * Adds the tweets to the segment in a part of their own. Adding the same tweets again replaces
+    * their part rather than adding another one.
+    *
+    * @return the name of the part
+    */
+   public String add(String segment, Iterable<Tweet> tweets) {
+      checkArgument(segment.startsWith(TweetStoreConstants.SEGMENT_PREFIX), "not a segment: %s", segment);
+      SortedMap<Long, Tweet> byId = Maps.newTreeMap();
+      for (Tweet tweet : tweets) {
+         byId.put(tweet.getId(), tweet);
+      }
+      checkArgument(!byId.isEmpty(), "no tweets to add to %s", segment);
+      Hasher ids = Hashing.murmur3_32().newHasher();
+      StringBuilder records = new StringBuilder();
+      for (Tweet tweet : byId.values()) {
+         ids.putLong(tweet.getId());
+         JsonObject record = new JsonObject();
+         record.addProperty("id", tweet.getId());
+         record.addProperty("from", tweet.getFrom());
+         record.addProperty("tweet", tweet.getText());
+         records.append(record).append('\n');
+      }
+      String part = segment + "-" + byId.size() + "-" + ids.hash();
+      Blob blob = store.blobBuilder(part).build();
+      codec.setPayload(blob, records.toString(), NDJSON);
+      store.putBlob(container, blob);
+      return part;
+   }
+
+   private static JsonObject parse(String json) {
+      return new JsonParser().parse(json).getAsJsonObject();
+   }
+}
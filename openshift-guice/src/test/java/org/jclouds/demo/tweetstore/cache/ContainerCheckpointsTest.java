@@ -0,0 +1,97 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.demo.tweetstore.cache;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.TransientApiMetadata;
+import org.jclouds.demo.tweetstore.cache.ContainerCheckpoints.Version;
+import org.jclouds.demo.tweetstore.concurrent.Deadline;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests behavior of {@code ContainerCheckpoints}
+ */
+@Test(groups = "unit")
+public class ContainerCheckpointsTest {
+
+   Map<String, BlobStoreContext> createContexts(String container) {
+      ImmutableMap.Builder<String, BlobStoreContext> contexts = ImmutableMap.builder();
+      for (String name : new String[] { "1", "2" }) {
+         BlobStoreContext context = ContextBuilder.newBuilder(TransientApiMetadata.builder().build()).build(
+                  BlobStoreContext.class);
+         context.getBlobStore().createContainerInLocation(null, container);
+         contexts.put(name, context);
+      }
+      return contexts.build();
+   }
+
+   public void testVersionChangesWhenCheckpointIsRewritten() {
+      String container = ContainerCheckpointsTest.class.getName() + "#rewritten";
+      Map<String, BlobStoreContext> contexts = createContexts(container);
+      ContainerCheckpoints checkpoints = new ContainerCheckpoints(contexts, container, sameThreadExecutor());
+      Version empty = checkpoints.get(Deadline.none());
+      assertTrue(empty.isKnown());
+      assertEquals(empty.getLastModified(), -1);
+
+      BlobStore store = contexts.get("1").getBlobStore();
+      store.putBlob(container, ContainerCheckpoints.newCheckpoint(store, 5));
+      Version stored = checkpoints.get(Deadline.none());
+      assertFalse(stored.equals(empty));
+      assertEquals(checkpoints.get(Deadline.none()), stored);
+      // the other container has no checkpoint yet
+      assertEquals(stored.getLastModified(), -1);
+
+      // the same id again
+      store.putBlob(container, ContainerCheckpoints.newCheckpoint(store, 5));
+      assertFalse(checkpoints.get(Deadline.none()).equals(stored));
+   }
+
+   public void testLastModifiedOnceAllContainersHaveCheckpoints() {
+      String container = ContainerCheckpointsTest.class.getName() + "#lastModified";
+      Map<String, BlobStoreContext> contexts = createContexts(container);
+      for (BlobStoreContext context : contexts.values()) {
+         BlobStore store = context.getBlobStore();
+         store.putBlob(container, ContainerCheckpoints.newCheckpoint(store, 5));
+      }
+      Version version = new ContainerCheckpoints(contexts, container, sameThreadExecutor()).get(Deadline.none());
+      assertTrue(version.getLastModified() > 0, version.getLastModified() + "");
+   }
+
+   public void testParsesCheckpoint() {
+      assertEquals(ContainerCheckpoints.parseCheckpoint("7\nabc\n"), Long.valueOf(7));
+      // as written before the checkpoints changed with every store
+      assertEquals(ContainerCheckpoints.parseCheckpoint("7"), Long.valueOf(7));
+      assertEquals(ContainerCheckpoints.parseCheckpoint(""), null);
+   }
+
+   public void testNoneIsNeverKnown() {
+      assertFalse(ContainerCheckpoints.none().get(Deadline.none()).isKnown());
+   }
+}
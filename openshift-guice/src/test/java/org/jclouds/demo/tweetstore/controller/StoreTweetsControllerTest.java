@@ -23,18 +23,32 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
 
 import java.io.IOException;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.TransientApiMetadata;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.demo.tweetstore.cache.ContainerVersions;
+import org.jclouds.demo.tweetstore.cache.CreatedContainers;
+import org.jclouds.demo.tweetstore.cache.StoredTweetIds;
+import org.jclouds.demo.tweetstore.functions.TweetCodec;
+import org.jclouds.demo.tweetstore.functions.TweetSegments;
 import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
+import org.jclouds.rest.AuthorizationException;
 import org.jclouds.util.Strings2;
 import org.testng.annotations.Test;
 
@@ -44,6 +58,11 @@ import twitter4j.User;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * Tests behavior of {@code StoreTweetsController}
@@ -109,6 +128,8 @@ public class StoreTweetsControllerTest {
          assertEquals(frankBlob.getMetadata().getContentMetadata().getContentType(), "text/plain");
          assertEquals(Strings2.toStringAndClose(frankBlob.getPayload().openStream()), 
                       "I love beans!");
+         assertEquals(Strings2.urlDecode(frankBlob.getMetadata().getUserMetadata().get(TweetStoreConstants.TWEET_TEXT)),
+                      "I love beans!");
 
          Blob jimmyBlob = store.getBlob("favo", "2");
          assertEquals(jimmyBlob.getMetadata().getName(), "2");
@@ -116,7 +137,171 @@ public class StoreTweetsControllerTest {
          assertEquals(jimmyBlob.getMetadata().getContentMetadata().getContentType(), "text/plain");
          assertEquals(Strings2.toStringAndClose(jimmyBlob.getPayload().openStream()), 
                       "cloud is king");
+         assertEquals(Strings2.urlDecode(jimmyBlob.getMetadata().getUserMetadata().get(TweetStoreConstants.TWEET_TEXT)),
+                      "cloud is king");
+      }
+
+   }
+
+   Status createStatus(long id, String text) {
+      User user = createMock(User.class);
+      expect(user.getScreenName()).andReturn("frank").anyTimes();
+      Status status = createMock(Status.class);
+      expect(status.getId()).andReturn(id).anyTimes();
+      expect(status.getUser()).andReturn(user).anyTimes();
+      expect(status.getText()).andReturn(text).anyTimes();
+      // two tweets an hour
+      expect(status.getCreatedAt()).andReturn(new Date(TimeUnit.MINUTES.toMillis(30 * id))).anyTimes();
+      replay(user);
+      replay(status);
+      return status;
+   }
+
+   public void testStoreTweetsConcurrently() throws IOException, InterruptedException, ExecutionException {
+      Map<String, BlobStoreContext> stores = createBlobStores();
+      ListeningExecutorService userExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+      try {
+         StoreTweetsController function = new StoreTweetsController(stores, "favo", createTwitter(),
+                  new ContainerVersions(), new StoredTweetIds(), new CreatedContainers(), userExecutor, 3, false, "");
+         List<Status> statuses = Lists.newArrayList();
+         for (long id = 1; id <= 20; id++) {
+            statuses.add(createStatus(id, "tweet " + id));
+         }
+         function.addMyTweets("test1", statuses);
+
+         BlobStore store = stores.get("test1").getBlobStore();
+         for (long id = 1; id <= 20; id++) {
+            assertEquals(Strings2.toStringAndClose(store.getBlob("favo", id + "").getPayload().openStream()),
+                     "tweet " + id);
+         }
+      } finally {
+         userExecutor.shutdownNow();
+      }
+   }
+
+   public void testStoreTweetsContinuesAfterError() throws IOException, InterruptedException, ExecutionException {
+      Map<String, BlobStoreContext> stores = createBlobStores();
+      ContainerVersions versions = new ContainerVersions();
+      StoreTweetsController function = new StoreTweetsController(stores, "favo", createTwitter(), versions);
+
+      Status broken = createMock(Status.class);
+      expect(broken.getId()).andReturn(2l).anyTimes();
+      expect(broken.getText()).andThrow(new IllegalStateException("broken")).anyTimes();
+      replay(broken);
+
+      function.addMyTweets("test1", ImmutableList.of(createStatus(1, "first"), broken, createStatus(3, "third")));
+
+      BlobStore store = stores.get("test1").getBlobStore();
+      assertEquals(Strings2.toStringAndClose(store.getBlob("favo", "1").getPayload().openStream()), "first");
+      assertFalse(store.blobExists("favo", "2"));
+      assertEquals(Strings2.toStringAndClose(store.getBlob("favo", "3").getPayload().openStream()), "third");
+      assertEquals(versions.get("test1"), 1);
+      // tweet 2 is retrieved again next time
+      assertEquals(function.checkpoint("test1"), StoreTweetsController.NO_CHECKPOINT);
+   }
+
+   public void testAuthorizationErrorAbortsStoringTweets() throws InterruptedException, ExecutionException {
+      Map<String, BlobStoreContext> stores = createBlobStores();
+      ContainerVersions versions = new ContainerVersions();
+      StoreTweetsController function = new StoreTweetsController(stores, "favo", createTwitter(), versions);
+
+      Status unauthorized = createMock(Status.class);
+      expect(unauthorized.getId()).andReturn(1l).anyTimes();
+      expect(unauthorized.getText()).andThrow(new AuthorizationException("denied")).anyTimes();
+      replay(unauthorized);
+
+      try {
+         function.addMyTweets("test1", ImmutableList.of(unauthorized, createStatus(2, "second")));
+         throw new AssertionError("expected AuthorizationException");
+      } catch (AuthorizationException e) {
+         assertFalse(stores.get("test1").getBlobStore().blobExists("favo", "2"));
+         assertEquals(versions.get("test1"), 0);
       }
+   }
+
+   public void testStoreTweetsMovesCheckpointToNewestTweet() throws InterruptedException, ExecutionException {
+      Map<String, BlobStoreContext> stores = createBlobStores();
+      StoreTweetsController function = new StoreTweetsController(stores, "favo", createTwitter());
+      assertEquals(function.checkpoint("test1"), StoreTweetsController.NO_CHECKPOINT);
+
+      function.addMyTweets("test1", ImmutableList.of(createStatus(7, "seventh"), createStatus(5, "fifth")));
+      assertEquals(function.checkpoint("test1"), 7);
+      assertEquals(function.checkpoint("test2"), StoreTweetsController.NO_CHECKPOINT);
+
+      // never moves back
+      function.addMyTweets("test1", ImmutableList.of(createStatus(3, "third")));
+      assertEquals(function.checkpoint("test1"), 7);
+      function.addMyTweets("test1", ImmutableList.of(createStatus(9, "ninth")));
+      assertEquals(function.checkpoint("test1"), 9);
+   }
+
+   public void testSkipsTweetsAlreadyStored() throws IOException, InterruptedException, ExecutionException {
+      Map<String, BlobStoreContext> stores = createBlobStores();
+      StoreTweetsController function = new StoreTweetsController(stores, "favo", createTwitter());
+      function.addMyTweets("test1", ImmutableList.of(createStatus(1, "first")));
+
+      // fails if its text is read to store it again
+      Status stored = createMock(Status.class);
+      expect(stored.getId()).andReturn(1l).anyTimes();
+      replay(stored);
+      function.addMyTweets("test1", ImmutableList.of(stored, createStatus(2, "second")));
+
+      verify(stored);
+      BlobStore store = stores.get("test1").getBlobStore();
+      assertEquals(Strings2.toStringAndClose(store.getBlob("favo", "1").getPayload().openStream()), "first");
+      assertEquals(Strings2.toStringAndClose(store.getBlob("favo", "2").getPayload().openStream()), "second");
+   }
+
+   public void testStoreTweetsInSegments() throws IOException, InterruptedException, ExecutionException {
+      Map<String, BlobStoreContext> stores = createBlobStores();
+      StoreTweetsController function = new StoreTweetsController(stores, "favo", createTwitter(),
+               new ContainerVersions(), new StoredTweetIds(), new CreatedContainers(),
+               MoreExecutors.sameThreadExecutor(), 1, true, "");
+      function.addMyTweets("test1", ImmutableList.of(createStatus(1, "first"), createStatus(2, "second")));
+      function.addMyTweets("test1", ImmutableList.of(createStatus(3, "third"), createStatus(2, "second")));
+
+      BlobStore store = stores.get("test1").getBlobStore();
+      assertFalse(store.blobExists("favo", "1"));
+      TweetSegments segments = new TweetSegments(store, "favo");
+      String first = TweetSegments.segmentOf(new Date(TimeUnit.MINUTES.toMillis(30)));
+      String second = TweetSegments.segmentOf(new Date(TimeUnit.MINUTES.toMillis(60)));
+      SortedMap<String, Integer> index = segments.index();
+      assertEquals(ImmutableList.copyOf(index.headMap(second).values()), ImmutableList.of(1));
+      // the second batch is added in a part of its own rather than by rewriting the segment
+      assertEquals(index.tailMap(second).size(), 2);
+      Set<String> texts = Sets.newHashSet();
+      for (String part : index.tailMap(second).keySet()) {
+         for (TweetSegments.Tweet tweet : segments.read(part)) {
+            texts.add(tweet.getText());
+         }
+      }
+      assertEquals(texts, ImmutableSet.of("second", "third"));
+      assertEquals(function.checkpoint("test1"), 3);
+   }
+
+   public void testStoreTweetsCompressed() throws IOException, InterruptedException, ExecutionException {
+      Map<String, BlobStoreContext> stores = createBlobStores();
+      StoreTweetsController function = new StoreTweetsController(stores, "favo", createTwitter(),
+               new ContainerVersions(), new StoredTweetIds(), new CreatedContainers(),
+               MoreExecutors.sameThreadExecutor(), 1, false, TweetCodec.TWEETS_DICTIONARY);
+      String text = "RT @jclouds: the new blobstore API is out, check it out at http://t.co/abc123 #java #cloud";
+      function.addMyTweets("test1", ImmutableList.of(createStatus(1, text)));
+
+      Blob blob = stores.get("test1").getBlobStore().getBlob("favo", "1");
+      assertEquals(blob.getMetadata().getUserMetadata().get(TweetStoreConstants.DICTIONARY_ID),
+               TweetCodec.TWEETS_DICTIONARY);
+      assertNull(blob.getMetadata().getUserMetadata().get(TweetStoreConstants.TWEET_TEXT));
+      assertEquals(TweetCodec.getText(blob), text);
+   }
+
+   public void testStoreTweetsChangesContainerVersion() throws InterruptedException, ExecutionException {
+      Map<String, BlobStoreContext> stores = createBlobStores();
+      ContainerVersions versions = new ContainerVersions();
+      StoreTweetsController function = new StoreTweetsController(stores, "favo", createTwitter(), versions);
+
+      function.addMyTweets("test1", ImmutableList.<Status>of());
 
+      assertEquals(versions.get("test1"), 1);
+      assertEquals(versions.get("test2"), 0);
    }
 }
@@ -28,6 +28,8 @@ import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.TransientApiMetadata;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.demo.tweetstore.cache.TweetCache;
 import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
 import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
 import org.testng.annotations.Test;
@@ -67,4 +69,52 @@ public class MetadataToStoredTweetStatusTest {
       assertEquals(result, expected);
 
    }
+
+   public void testTweetFromUserMetadataSkipsPayload() throws IOException, InterruptedException,
+            ExecutionException {
+      String container = "test2";
+      BlobStore store = createStoreAndContainer(container);
+      Blob blob = store.blobBuilder("1").build();
+      blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+      blob.getMetadata().getUserMetadata().put(TweetStoreConstants.TWEET_TEXT, "I%20love%20beans%21");
+      blob.setPayload("not read");
+      store.putBlob(container, blob);
+      String host = "localhost";
+      String service = "stub";
+
+      MetadataToStoredTweetStatus function = new MetadataToStoredTweetStatus(store, service, host, container);
+      StoredTweetStatus result = function.apply(blob.getMetadata());
+
+      StoredTweetStatus expected = new StoredTweetStatus(service, host, container, "1", "frank",
+               "I love beans!", null);
+
+      assertEquals(result, expected);
+      assertEquals(result.getStatus(), "listed");
+   }
+
+   public void testCachedTweetIsNotRetrievedAgain() throws IOException, InterruptedException, ExecutionException {
+      String container = "test3";
+      BlobStore store = createStoreAndContainer(container);
+      Blob blob = store.blobBuilder("1").build();
+      blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+      blob.setPayload("I love beans!");
+      store.putBlob(container, blob);
+      BlobMetadata listed = store.blobMetadata(container, "1");
+      String host = "localhost";
+      String service = "stub";
+      TweetCache tweetCache = new TweetCache(1024);
+
+      MetadataToStoredTweetStatus function = new MetadataToStoredTweetStatus(store, service, host, container,
+               tweetCache);
+      StoredTweetStatus expected = new StoredTweetStatus(service, host, container, "1", "frank",
+               "I love beans!", null);
+      assertEquals(function.apply(listed), expected);
+
+      store.removeBlob(container, "1");
+      StoredTweetStatus result = function.apply(listed);
+      assertEquals(result, expected);
+      assertEquals(result.getStatus(), "cached");
+      assertEquals(tweetCache.stats().hitCount(), 1);
+      assertEquals(tweetCache.stats().missCount(), 1);
+   }
 }
@@ -19,21 +19,38 @@
 package org.jclouds.demo.tweetstore.functions;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
 import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.TransientApiMetadata;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.demo.tweetstore.cache.TweetCache;
+import org.jclouds.demo.tweetstore.concurrent.Deadline;
+import org.jclouds.demo.tweetstore.concurrent.Latencies;
+import org.jclouds.demo.tweetstore.domain.MergedTweetStatus;
 import org.jclouds.demo.tweetstore.domain.StoredTweetStatus;
 import org.jclouds.demo.tweetstore.reference.TweetStoreConstants;
 import org.testng.annotations.Test;
 import org.testng.collections.Maps;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * Tests behavior of {@code ServiceToStoredTweetStatuses}
@@ -72,4 +89,179 @@ public class ServiceToStoredTweetStatusesTest {
                container, "1", "frank", "I love beans!", null));
 
    }
+
+   public void testCountsTweetCacheHits() throws IOException, InterruptedException, ExecutionException {
+      String container = ServiceToStoredTweetStatusesTest.class.getName() + "#stats";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+
+      TweetCache tweetCache = new TweetCache(1024);
+      ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container,
+               MoreExecutors.sameThreadExecutor(), 1, tweetCache);
+      Iterables.size(function.apply("1"));
+      // without a last listing to reuse
+      Iterables.size(new ServiceToStoredTweetStatuses(contexts, container, MoreExecutors.sameThreadExecutor(), 1,
+               tweetCache).apply("1"));
+
+      assertEquals(function.tweetCacheStats().missCount(), 1);
+      assertEquals(function.tweetCacheStats().hitCount(), 1);
+   }
+
+   public void testFetchTweetsInParallelPreservesListingOrder() throws IOException, InterruptedException,
+            ExecutionException {
+      String container = ServiceToStoredTweetStatusesTest.class.getName() + "#parallel";
+      BlobStoreContext context = ContextBuilder.newBuilder(TransientApiMetadata.builder().build()).build(
+               BlobStoreContext.class);
+      context.getBlobStore().createContainerInLocation(null, container);
+      List<String> names = Lists.newArrayList();
+      for (int i = 0; i < 20; i++) {
+         String name = String.format("%02d", i);
+         Blob blob = context.getBlobStore().blobBuilder(name).build();
+         blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+         blob.setPayload("tweet " + name);
+         context.getBlobStore().putBlob(container, blob);
+         names.add(name);
+      }
+      Map<String, BlobStoreContext> contexts = Maps.newHashMap();
+      contexts.put("1", context);
+
+      ListeningExecutorService userExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+      try {
+         ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container,
+                  userExecutor, 3, new TweetCache(0));
+
+         List<String> ids = Lists.newArrayList();
+         for (StoredTweetStatus status : function.apply("1")) {
+            assertEquals(status.getTweet(), "tweet " + status.getId());
+            ids.add(status.getId());
+         }
+         assertEquals(ids, ImmutableList.copyOf(names));
+      } finally {
+         userExecutor.shutdownNow();
+      }
+   }
+
+   public void testOnlyReadsBlobsAddedSinceLastListing() throws IOException, InterruptedException,
+            ExecutionException {
+      String container = ServiceToStoredTweetStatusesTest.class.getName() + "#incremental";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      BlobStore store = contexts.get("1").getBlobStore();
+      Blob blob = store.blobBuilder("2").build();
+      blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+      blob.setPayload("I love rice!");
+      store.putBlob(container, blob);
+
+      // nothing is cached, so the tweets reused are those kept from the last listing
+      ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container,
+               MoreExecutors.sameThreadExecutor(), 1, new TweetCache(0));
+      List<StoredTweetStatus> first = ImmutableList.copyOf(function.apply("1"));
+      assertEquals(first.size(), 2);
+
+      store.removeBlob(container, "1");
+      blob = store.blobBuilder("3").build();
+      blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+      blob.setPayload("I love peas!");
+      store.putBlob(container, blob);
+
+      List<StoredTweetStatus> second = ImmutableList.copyOf(function.apply("1"));
+      assertEquals(second.size(), 2);
+      assertEquals(second.get(0), first.get(1));
+      assertEquals(second.get(0).getStatus(), "reused");
+      assertEquals(second.get(1), new StoredTweetStatus("1", "localhost", container, "3", "frank",
+               "I love peas!", null));
+      assertFalse(second.get(1).getStatus().equals("reused"));
+
+      // a listing that is not read to the end leaves the last listing in place
+      function.apply("1").iterator().next();
+      assertEquals(Iterables.get(function.apply("1"), 1).getStatus(), "reused");
+   }
+
+   public void testMergedRetrievesEachTweetFromOneService() throws InterruptedException, ExecutionException {
+      String container = ServiceToStoredTweetStatusesTest.class.getName() + "#merged";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      Blob blob = contexts.get("2").getBlobStore().blobBuilder("10").build();
+      blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+      blob.setPayload("I love rice!");
+      contexts.get("2").getBlobStore().putBlob(container, blob);
+      // listed after "10", so merged after it
+      blob = contexts.get("1").getBlobStore().blobBuilder("9").build();
+      blob.getMetadata().getUserMetadata().put(TweetStoreConstants.SENDER_NAME, "frank");
+      blob.setPayload("I love peas!");
+      contexts.get("1").getBlobStore().putBlob(container, blob);
+
+      ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container);
+      List<MergedTweetStatus> merged = ImmutableList.copyOf(function.merged(ImmutableList.of("1", "2"),
+               Deadline.none()));
+      assertEquals(merged.size(), 3);
+      assertEquals(merged.get(0).getId(), "1");
+      assertEquals(merged.get(0).getTweet(), "I love beans!");
+      assertEquals(merged.get(0).getStatuses().keySet(), ImmutableSet.of("1", "2"));
+      assertEquals(Collections.frequency(merged.get(0).getStatuses().values(), MergedTweetStatus.PRESENT), 1);
+      assertEquals(merged.get(1).getId(), "10");
+      assertEquals(merged.get(1).getTweet(), "I love rice!");
+      assertEquals(merged.get(1).getStatuses().keySet(), ImmutableSet.of("2"));
+      assertFalse(MergedTweetStatus.PRESENT.equals(merged.get(1).getStatuses().get("2")));
+      assertEquals(merged.get(2).getId(), "9");
+      assertEquals(merged.get(2).getTweet(), "I love peas!");
+      assertEquals(merged.get(2).getStatuses().keySet(), ImmutableSet.of("1"));
+   }
+
+   public void testReadsSegmentsOnlyIfEnabled() throws IOException, InterruptedException, ExecutionException {
+      String container = ServiceToStoredTweetStatusesTest.class.getName() + "#segments";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      new TweetSegments(contexts.get("1").getBlobStore(), container).add(TweetStoreConstants.SEGMENT_PREFIX
+               + "1970010100", ImmutableList.of(new TweetSegments.Tweet(2, "jimmy", "cloud is king")));
+
+      ServiceToStoredTweetStatuses enabled = new ServiceToStoredTweetStatuses(contexts, container,
+               MoreExecutors.sameThreadExecutor(), 1, new TweetCache(0), new Latencies(), true);
+      assertEquals(ids(enabled.apply("1")), ImmutableSet.of("1", "2"));
+
+      ServiceToStoredTweetStatuses disabled = new ServiceToStoredTweetStatuses(contexts, container,
+               MoreExecutors.sameThreadExecutor(), 1, new TweetCache(0), new Latencies(), false);
+      assertEquals(ids(disabled.apply("1")), ImmutableSet.of("1"));
+   }
+
+   public void testReadsSegmentsInEveryView() throws IOException, InterruptedException, ExecutionException {
+      String container = ServiceToStoredTweetStatusesTest.class.getName() + "#views";
+      Map<String, BlobStoreContext> contexts = createServices(container);
+      for (BlobStoreContext context : contexts.values()) {
+         new TweetSegments(context.getBlobStore(), container).add(TweetStoreConstants.SEGMENT_PREFIX + "1970010100",
+                  ImmutableList.of(new TweetSegments.Tweet(2, "jimmy", "cloud is king")));
+      }
+      new TweetSegments(contexts.get("1").getBlobStore(), container).add(TweetStoreConstants.SEGMENT_PREFIX
+               + "1970010101", ImmutableList.of(new TweetSegments.Tweet(3, "jimmy", "cloud is still king")));
+      ServiceToStoredTweetStatuses function = new ServiceToStoredTweetStatuses(contexts, container,
+               MoreExecutors.sameThreadExecutor(), 1, new TweetCache(0), new Latencies(), true);
+
+      assertEquals(ids(function.apply("1")), ImmutableSet.of("1", "2", "3"));
+      assertEquals(ids(function.newest("1", 10, Deadline.none())), ImmutableSet.of("1", "2", "3"));
+
+      // the parts of the segments are listed after the tweets stored one per blob
+      List<StoredTweetStatus> paged = Lists.newArrayList();
+      String marker = null;
+      do {
+         PageSet<StoredTweetStatus> page = function.apply("1", marker, 1);
+         paged.addAll(page);
+         marker = page.getNextMarker();
+      } while (marker != null);
+      assertEquals(ids(paged), ImmutableSet.of("1", "2", "3"));
+      assertEquals(paged.size(), 3);
+
+      List<MergedTweetStatus> merged = ImmutableList.copyOf(function.merged(ImmutableList.of("1", "2"),
+               Deadline.none()));
+      assertEquals(merged.size(), 3);
+      assertEquals(merged.get(1).getId(), "2");
+      assertEquals(merged.get(1).getTweet(), "cloud is king");
+      assertEquals(merged.get(1).getStatuses().keySet(), ImmutableSet.of("1", "2"));
+      assertEquals(Collections.frequency(merged.get(1).getStatuses().values(), MergedTweetStatus.PRESENT), 1);
+      assertEquals(merged.get(2).getId(), "3");
+      assertEquals(merged.get(2).getStatuses().keySet(), ImmutableSet.of("1"));
+   }
+
+   private static Set<String> ids(Iterable<StoredTweetStatus> statuses) {
+      Set<String> ids = Sets.newHashSet();
+      for (StoredTweetStatus status : statuses) {
+         ids.add(status.getId());
+      }
+      return ids;
+   }
 }